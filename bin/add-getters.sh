@@ -14,14 +14,18 @@
 # limitations under the License.
 
 # Check argument count
-if [ "$#" -ne 1 ]; then
-	echo "usage: "$0" <class-roots-file>"
+if [ "$#" -ne 1 ] && [ "$#" -ne 2 ]; then
+	echo "usage: "$0" <class-roots-file> [interesting-variables-file]"
 	exit
 fi
 
 curScriptDir="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
 cofiJar="$curScriptDir"/../target/cofi-0.1-SNAPSHOT-jar-with-dependencies.jar
-classRootsFile="$1"
+classRootsFile="$( cd "$( dirname "$1" )" && pwd )/$( basename "$1" )"
+interestingVarsFile=""
+if [ -n "$2" ]; then
+  interestingVarsFile="$( cd "$( dirname "$2" )" && pwd )/$( basename "$2" )"
+fi
 
 while read -r classRoot 
 do
@@ -34,4 +38,33 @@ do
   java -cp ".:$cofiJar" cofi.instrumentation.GetterAdder && \
   # Change back to the original directory.
   cd -
-done < "$classRootsFile"
\ No newline at end of file
+done < "$classRootsFile"
+
+# The following steps need all the instrumented class roots on the class path,
+# and the class root of CoFI's client.
+classPath="$cofiJar"
+classRoots=()
+clientRoot=""
+while read -r classRoot
+do
+  classPath="$classPath:$classRoot"
+  classRoots+=("$classRoot")
+  if [ -d "$classRoot/cofi/client" ]; then
+    clientRoot="$classRoot"
+  fi
+done < "$classRootsFile"
+if [ -z "$clientRoot" ]; then
+  echo "Cannot find CoFI's client in the class roots. Skipping the extractors" \
+      "and the call site IDs."
+  exit
+fi
+
+# Generate the extractors of the interesting variables into the class root of
+# CoFI's client.
+if [ -n "$interestingVarsFile" ]; then
+  java -cp "$classPath" cofi.instrumentation.ExtractorGenerator \
+      "$interestingVarsFile" "$clientRoot"
+fi
+
+# Assign IDs to the call sites of the client's hooks.
+java -cp "$classPath" cofi.instrumentation.CallSiteTagger "${classRoots[@]}"
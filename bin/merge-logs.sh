@@ -27,16 +27,16 @@ mkdir -p dtraces
 rm -rf dtraces/*
 mkdir -p inv-gzs
 rm -rf inv-gzs/*
+mkdir -p mergeRuns
+rm -rf mergeRuns/*
+mkdir -p dtraceSpills
+rm -rf dtraceSpills/*
 
 # Merge profile logs to generate dtrace files.
 java -Xmx6g -cp .:$cofiJar cofi.ParisRunner merging $1
 
-# Run Daikon on dtrace files.
-echo "" > invariants.txt
-for dtrace in dtraces/*.dtrace; do
-	echo "[runDaikon] Mining $dtrace"
-	java -Xmx10g -XX:-UseGCOverheadLimit -cp $daikonJar daikon.Daikon $dtrace >> invariants.txt
-done
+# Run Daikon on dtrace files in parallel.
+java -cp .:$cofiJar cofi.mining.DaikonDriver dtraces $daikonJar invariants.txt
 
 # Clean-up the zipped invariants.
 mv *.inv.gz inv-gzs/
@@ -14,8 +14,8 @@
 # limitations under the License.
 
 # Check arguments
-if [[ "$#" -ne 3 ]]; then
-	echo "usage: "$0" <interesting-variables-file> <test-file> <clean-up-file>"
+if [[ "$#" -ne 3 && !( "$#" -eq 4 && "$4" == "--pipelined" ) ]]; then
+	echo "usage: "$0" <interesting-variables-file> <test-file> <clean-up-file> [--pipelined]"
 	exit 1
 fi
 
@@ -25,6 +25,7 @@ cofiJar="$cofiRoot"/target/cofi-0.1-SNAPSHOT-jar-with-dependencies.jar
 varFile="$1"
 testFile="$2"
 cleanUpFile="$3"
+pipelined="$4"
 
 #########
 # Prepare
@@ -35,6 +36,13 @@ if [[ "$?" -ne 0 ]]; then
 	echo "Failed to copy "$varFile" to /cofi/interesting-variables.txt."
 	exit 1
 fi
+# Copy the variable filters next to the interesting variable file, if any, so
+# that the variables we never mine are skipped when collecting them.
+filterFile="$(dirname "$varFile")"/variable-filters.txt
+rm -f "$cofiRoot"/variable-filters.txt
+if [[ -f "$filterFile" ]]; then
+	cp "$filterFile" "$cofiRoot"/variable-filters.txt
+fi
 # Tell CoFI to run in the invariant mining stage.
 echo "MINING" > "$cofiRoot"/stage.txt
 # Create the directory to store profiling logs.
@@ -44,6 +52,18 @@ rm -rf "$cofiRoot"/profiling-logs/*
 ##############
 # Run the test
 ##############
+if [[ "$pipelined" == "--pipelined" ]]; then
+	# Mine the logs while the test is running, and wait for the rest of the
+	# mining after it.
+	(cd "$cofiRoot" && java -Xmx6g -cp .:"$cofiJar" cofi.mining.MiningDaemon \
+		"$cofiRoot"/profiling-logs "$cofiRoot"/interesting-variables.txt) &
+	daemonPid="$!"
+	"$cleanUpFile" && "$testFile"
+	touch "$cofiRoot"/profiling-logs/mining-done
+	wait "$daemonPid"
+	exit "$?"
+fi
+
 # Cleanup possible leftovers and run the test to mine invariants.
 "$cleanUpFile" && "$testFile"
 
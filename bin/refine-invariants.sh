@@ -0,0 +1,54 @@
+#!/bin/bash
+# Copyright 2020 Haicheng Chen
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Refine the invariants mined so far with the profiling logs of another test
+# run, instead of mining all the logs again. The mining state is kept in
+# <state-dir>, mining-state under CoFI's root by default. Remove it to start
+# over. The result may differ from mining all the logs at once; see
+# cofi.mining.EqualityMiner.
+if [[ "$#" -ne 2 && "$#" -ne 3 ]]; then
+	echo "usage: "$0" <profiling-log-dir> <interesting-variables-file> [state-dir]"
+	exit 1
+fi
+
+curScriptDir="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
+cofiRoot="$curScriptDir"/..
+cofiJar="$cofiRoot"/target/cofi-0.1-SNAPSHOT-jar-with-dependencies.jar
+logDir="$( cd "$1" && pwd )"
+varFile="$( cd "$( dirname "$2" )" && pwd )"/"$( basename "$2" )"
+stateDir="${3:-"$cofiRoot"/mining-state}"
+mkdir -p "$stateDir" && stateDir="$( cd "$stateDir" && pwd )"
+
+cd "$cofiRoot"
+
+# Prepare the necessary directories to store the output.
+mkdir -p tmpLogs
+rm -rf tmpLogs/*
+mkdir -p dtraces
+rm -rf dtraces/*
+mkdir -p mergeRuns
+rm -rf mergeRuns/*
+mkdir -p dtraceSpills
+rm -rf dtraceSpills/*
+
+# Merge the new profile logs to generate dtrace files.
+java -Xmx6g -cp .:$cofiJar cofi.ParisRunner merging "$logDir"
+
+# Refine the mining state with the new dtrace files, and update the selected
+# invariants.
+java -Xmx6g -cp .:$cofiJar cofi.mining.EqualityMiner dtraces "$varFile" \
+	--state "$stateDir"
+
+cd -
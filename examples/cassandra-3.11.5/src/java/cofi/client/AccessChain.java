@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An access path resolved once for repeated evaluation. The accessors are
+ * parsed into steps up front, and the getters are looked up as MethodHandles
+ * once per class instead of through reflection on every evaluation.
+ *
+ * Each field step also keeps the getter for the class it has seen last, i.e.,
+ * an inline cache. A polymorphic field, whose objects are of different
+ * subclasses, only costs a lookup in the per-class cache when the class
+ * changes.
+ */
+class AccessChain {
+  enum Kind {
+    // A field, read through its yGet_ getter.
+    FIELD,
+    // get(), the object referred to by an Atomic* object.
+    GET,
+    // get(*), every element of a collection or a map.
+    ALL_ELEMENTS,
+    // get(<number>), the element of a collection at the index, or the value
+    // of a map whose key hashes to the number.
+    ELEMENT,
+    // [*], every element of an array.
+    ALL_ARRAY_ELEMENTS,
+    // [<number>], the element of an array at the index.
+    ARRAY_ELEMENT
+  }
+
+  /**
+   * An accessor of the access path.
+   */
+  static class Step {
+    final String accessor;
+    final Kind kind;
+    // The index or the key hash of an ELEMENT or ARRAY_ELEMENT step.
+    final int num;
+    // The name of the getter of a FIELD or GET step.
+    private final String getterName;
+    // The getter for the class seen last.
+    private volatile CachedGetter cache = null;
+
+    Step(String accessor) {
+      this.accessor = accessor;
+      if (accessor.equals("get()")) {
+        kind = Kind.GET;
+      } else if (accessor.equals("get(*)")) {
+        kind = Kind.ALL_ELEMENTS;
+      } else if (accessor.startsWith("get(") && accessor.endsWith(")")) {
+        kind = Kind.ELEMENT;
+      } else if (accessor.equals("[*]")) {
+        kind = Kind.ALL_ARRAY_ELEMENTS;
+      } else if (accessor.startsWith("[") && accessor.endsWith("]")) {
+        kind = Kind.ARRAY_ELEMENT;
+      } else {
+        kind = Kind.FIELD;
+      }
+      num = kind == Kind.ELEMENT
+              ? Integer.parseInt(accessor.substring(4, accessor.length() - 1))
+              : kind == Kind.ARRAY_ELEMENT
+              ? Integer.parseInt(accessor.substring(1, accessor.length() - 1))
+              : 0;
+      getterName = kind == Kind.FIELD ? "yGet_" + accessor : "get";
+    }
+
+    /**
+     * Get the field of the object for a FIELD step, or the referred object
+     * for a GET step.
+     */
+    Object get(Object obj) throws Throwable {
+      CachedGetter cached = cache;
+      if (cached == null || cached.cls != obj.getClass()) {
+        cached = new CachedGetter(obj.getClass(),
+                getterOf(obj.getClass(), getterName, false));
+        cache = cached;
+      }
+      return (Object) cached.getter.invokeExact(obj);
+    }
+  }
+
+  private static class CachedGetter {
+    final Class<?> cls;
+    final MethodHandle getter;
+
+    CachedGetter(Class<?> cls, MethodHandle getter) {
+      this.cls = cls;
+      this.getter = getter;
+    }
+  }
+
+  // The getters of each class, by name.
+  private static final ClassValue<ConcurrentHashMap<String, MethodHandle>>
+          getters = new ClassValue<ConcurrentHashMap<String, MethodHandle>>() {
+            @Override
+            protected ConcurrentHashMap<String, MethodHandle> computeValue(
+                    Class<?> cls) {
+              return new ConcurrentHashMap<>();
+            }
+          };
+
+  private final String rootClassName;
+  // The accessors, starting with the static field of the root class.
+  private final ArrayList<String> accessors;
+  private final Step[] steps;
+  // The segments of the root class name, i.e., the parts between the dots.
+  private final String[] rootSegments;
+  // The getter of the static field, looked up on the first evaluation.
+  private volatile MethodHandle staticGetter = null;
+  // The walk compiled at instrumentation time, if any.
+  private Extractor extractor = null;
+
+  AccessChain(String rootClassName, ArrayList<String> accessors) {
+    this.rootClassName = rootClassName;
+    this.accessors = accessors;
+    steps = new Step[accessors.size()];
+    for (int i = 0; i < steps.length; ++i) {
+      steps[i] = new Step(accessors.get(i));
+    }
+    rootSegments = rootClassName.split("\\.");
+  }
+
+  AccessChain(AccessPath path) {
+    this(path.getRootClass(), path.getAccessors());
+  }
+
+  String getRootClassName() {
+    return rootClassName;
+  }
+
+  ArrayList<String> getAccessors() {
+    return accessors;
+  }
+
+  /**
+   * Make the buffer of the path segments for a walk of the chain. The root
+   * class name is split already, and each accessor takes one more segment,
+   * which is filled in when the walk gets there.
+   * @return The segments.
+   */
+  String[] newPathSegments() {
+    return Arrays.copyOf(rootSegments, rootSegments.length + steps.length);
+  }
+
+  Step getStep(int index) {
+    return steps[index];
+  }
+
+  int size() {
+    return steps.length;
+  }
+
+  Extractor getExtractor() {
+    return extractor;
+  }
+
+  /**
+   * Load the extractor generated for this access path at instrumentation
+   * time. An extractor generated for a different path with the same hash is
+   * ignored.
+   * @return Whether the extractor is loaded.
+   */
+  boolean loadExtractor() throws ReflectiveOperationException {
+    String path = toString();
+    Class<?> cls;
+    try {
+      cls = Class.forName(Extractor.classNameOf(path));
+    } catch (ClassNotFoundException cnfe) {
+      return false;
+    }
+    Extractor candidate = (Extractor) cls.newInstance();
+    if (!candidate.path().equals(path)) {
+      return false;
+    }
+    extractor = candidate;
+    return true;
+  }
+
+  /**
+   * Get the static field the access path starts with.
+   */
+  Object getStaticField() throws Throwable {
+    MethodHandle getter = staticGetter;
+    if (getter == null) {
+      getter = getterOf(Class.forName(rootClassName), "yGet_" + accessors.get(0),
+              true);
+      staticGetter = getter;
+    }
+    return (Object) getter.invokeExact();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(rootClassName);
+    for (String accessor : accessors) {
+      sb.append(".").append(accessor);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Look up a public getter of the class, i.e., a method without parameters.
+   * @param cls The class to look up the getter in.
+   * @param name The name of the getter.
+   * @param isStatic Whether the getter is static.
+   * @return The getter, taking the object, if not static, and returning the
+   *         result as an Object.
+   */
+  static MethodHandle getterOf(Class<?> cls, String name, boolean isStatic)
+          throws ReflectiveOperationException {
+    ConcurrentHashMap<String, MethodHandle> classGetters = getters.get(cls);
+    MethodHandle getter = classGetters.get(name);
+    if (getter == null) {
+      Method method = cls.getMethod(name);
+      if (Modifier.isStatic(method.getModifiers()) != isStatic) {
+        throw new NoSuchMethodException((isStatic ? "No static method " :
+                "No instance method ") + name + " in " + cls);
+      }
+      // The method is public, but its class may not be.
+      method.setAccessible(true);
+      getter = MethodHandles.lookup().unreflect(method).asType(isStatic
+              ? MethodType.methodType(Object.class)
+              : MethodType.methodType(Object.class, Object.class));
+      classGetters.putIfAbsent(name, getter);
+    }
+    return getter;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A microbenchmark of the per-event cost of collecting the interesting
+ * variables, with the access paths resolved into AccessChains, against the
+ * original walk that looks up every getter through reflection. The objects
+ * are shaped like Gossiper's endpointStateMap, with the endpoints of two
+ * different classes, so that the field steps are polymorphic.
+ *
+ * Usage: AccessChainBenchmark [events] [endpoints]
+ */
+public class AccessChainBenchmark {
+  private static final String kRoot = AccessChainBenchmark.class.getName() +
+          "$Cluster";
+  private static final String[] kPaths = {
+          kRoot + ".instance.endpoints.get(*).state.get().version",
+          kRoot + ".instance.endpoints.get(*).state.get().status",
+          kRoot + ".instance.endpoints.get(*).generation",
+          kRoot + ".instance.name",
+  };
+
+  // The fields are named apart from the getters, so that GetterAdder does not
+  // add the getters again when it instruments the client's class root.
+  public static class Cluster {
+    static Cluster mInstance = new Cluster();
+    final String mName = "test-cluster";
+    final HashMap<String, Endpoint> mEndpoints = new HashMap<>();
+
+    public static Cluster yGet_instance() { return mInstance; }
+    public String yGet_name() { return mName; }
+    public HashMap<String, Endpoint> yGet_endpoints() { return mEndpoints; }
+  }
+
+  public static class State {
+    final int mVersion;
+    final String mStatus;
+
+    State(int version, String status) {
+      mVersion = version;
+      mStatus = status;
+    }
+
+    public int yGet_version() { return mVersion; }
+    public String yGet_status() { return mStatus; }
+  }
+
+  public static class Endpoint {
+    final AtomicReference<State> mState;
+    final long mGeneration;
+
+    Endpoint(int version, long generation) {
+      mState = new AtomicReference<>(new State(version, "NORMAL"));
+      mGeneration = generation;
+    }
+
+    public AtomicReference<State> yGet_state() { return mState; }
+    public long yGet_generation() { return mGeneration; }
+  }
+
+  public static class SeedEndpoint extends Endpoint {
+    SeedEndpoint(int version, long generation) {
+      super(version, generation);
+    }
+
+    @Override
+    public AtomicReference<State> yGet_state() { return mState; }
+  }
+
+  public static void main(String[] args) throws Throwable {
+    int events = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int endpoints = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    for (int i = 0; i < endpoints; ++i) {
+      Cluster.mInstance.mEndpoints.put("10.0.0." + i, i % 2 == 0
+              ? new Endpoint(i, 1000 + i) : new SeedEndpoint(i, 1000 + i));
+    }
+    ArrayList<AccessPath> paths = new ArrayList<>();
+    ArrayList<AccessChain> chains = new ArrayList<>();
+    for (String path : kPaths) {
+      paths.add(new AccessPath(path));
+      chains.add(new AccessChain(paths.get(paths.size() - 1)));
+    }
+
+    TreeSet<String> expected = null, actual = null;
+    long reflectiveNs = 0, chainedNs = 0;
+    // The first round warms up the JIT.
+    for (int round = 0; round < 2; ++round) {
+      long startTime = System.nanoTime();
+      for (int i = 0; i < events; ++i) {
+        HashSet<String> vars = new HashSet<>();
+        for (AccessPath path : paths) {
+          ArrayList<String> accessors = path.getAccessors();
+          Object staticField = Class.forName(path.getRootClass())
+                  .getMethod("yGet_" + accessors.get(0)).invoke(null);
+          collectReflectively(staticField, accessors, 0,
+                  path.getRootClass() + "." + accessors.get(0), vars);
+        }
+        expected = new TreeSet<>(vars);
+      }
+      reflectiveNs = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < events; ++i) {
+        HashSet<Variable> vars = new HashSet<>();
+        for (AccessChain chain : chains) {
+          Variable.zoomInAndGetVars(chain.getStaticField(), chain, 0,
+                  chain.getRootClassName() + "." + chain.getAccessors().get(0),
+                  chain.newPathSegments(), vars);
+        }
+        actual = new TreeSet<>();
+        for (Variable v : vars) {
+          actual.add(v.accessPath + "=" + v.value);
+        }
+      }
+      chainedNs = System.nanoTime() - startTime;
+    }
+
+    System.out.println("Collected " + actual.size() + " variables per event.");
+    System.out.println("Reflective walk: " + reflectiveNs / events +
+            " ns per event.");
+    System.out.println("Access chains: " + chainedNs / events +
+            " ns per event.");
+    if (!expected.equals(actual)) {
+      System.out.println("The access chains collect different variables.");
+      System.exit(1);
+    }
+    System.out.println("Both walks collect the same variables.");
+  }
+
+  /**
+   * The original walk in Variable.zoomInAndGetVars(), for the fields, get(),
+   * and get(*) of a map.
+   */
+  private static void collectReflectively(
+          Object curObj,
+          ArrayList<String> accessors,
+          int curIndex,
+          String curPath,
+          HashSet<String> vars) throws Exception {
+    if (curObj == null) {
+      vars.add(curPath + "=null");
+      return;
+    }
+    if (curIndex == accessors.size() - 1) {
+      vars.add(curPath + "=" + curObj);
+      return;
+    }
+    String accessor = accessors.get(curIndex + 1);
+    if (accessor.equals("get()")) {
+      Object nextObj = curObj.getClass().getMethod("get").invoke(curObj);
+      collectReflectively(nextObj, accessors, curIndex + 1,
+              curPath + ".get()", vars);
+    } else if (accessor.equals("get(*)")) {
+      for (Object key : ((Map) curObj).keySet()) {
+        collectReflectively(((Map) curObj).get(key), accessors, curIndex + 1,
+                curPath + ".get(" + Variable.getHash(key) + ")", vars);
+      }
+    } else {
+      Method getter = curObj.getClass().getMethod("yGet_" + accessor);
+      collectReflectively(getter.invoke(curObj), accessors, curIndex + 1,
+              curPath + "." + accessor, vars);
+    }
+  }
+}
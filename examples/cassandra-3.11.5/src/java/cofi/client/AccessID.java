@@ -15,7 +15,6 @@
  */
 package cofi.client;
 
-import java.lang.reflect.Method;
 import java.util.*;
 
 public class AccessID {
@@ -23,6 +22,8 @@ public class AccessID {
   Class<?> rootClass = null;
   String staticField = null;
   ArrayList<String> accessors = new ArrayList<>();
+  // The static field and the accessors, resolved for repeated evaluation.
+  private AccessChain chain = null;
 
   private static Config.Logger logger = new Config.Logger("ycz.AccessID");
 
@@ -67,6 +68,7 @@ public class AccessID {
     tail = idString.indexOf('.', head + 1);
     if (tail == -1) {
       id.staticField = idString.substring(head);
+      id.resolve();
       return id;
     } else {
       id.staticField = idString.substring(head, tail);
@@ -84,9 +86,17 @@ public class AccessID {
       }
     }
 
+    id.resolve();
     return id;
   }
 
+  private void resolve() {
+    ArrayList<String> chainAccessors = new ArrayList<>();
+    chainAccessors.add(staticField);
+    chainAccessors.addAll(accessors);
+    chain = new AccessChain(rootClass.getName(), chainAccessors);
+  }
+
   /**
    * Return a map containing a pair of name and value of a variable. The
    * variable is retrieved based on this access ID.
@@ -96,30 +106,38 @@ public class AccessID {
     HashMap<String, String> result = new HashMap<>();
     try {
       // Get a reference of the static field.
-      Object curValue = rootClass.getMethod("yGet_" + staticField).invoke(null);
+      Object curValue = chain.getStaticField();
       String curName = nodeID + "-" + rootClass.getName() + "." + staticField;
 
       // Zoom in according to the access ID.
-      for (String accessor : accessors) {
+      for (int i = 1; i < chain.size(); ++i) {
+        AccessChain.Step step = chain.getStep(i);
         if (curValue == null) {
           // We won't be able to zoom in a null.
           break;
-        } else if (accessor.equals("get()")) {
-          // "get()" means we need to zoom in an Atomic* object.
-          curValue = curValue.getClass().getMethod("get").invoke(curValue);
-        } else if (accessor.startsWith("get(")) {
-          // "get(###)" means get an entry from a map.
-          curValue = zoomIntoMap((Map) curValue, accessor);
-        } else if (accessor.startsWith("[") && accessor.endsWith("]")) {
-          // "[###]" means get an element from a collection. In this case, the
-          // current value can either be an array, or a Collection object.
-          curValue = zoomIntoArray(curValue, accessor);
-        } else {
-          // Otherwise, it is a field name.
-          Method getter = curValue.getClass().getMethod("yGet_" + accessor);
-          curValue = getter.invoke(curValue);
         }
-        curName += "." + accessor;
+        switch (step.kind) {
+          case GET:
+            // "get()" means we need to zoom in an Atomic* object.
+          case FIELD:
+            // Otherwise, it is a field name.
+            curValue = step.get(curValue);
+            break;
+          case ELEMENT:
+            // "get(###)" means get an entry from a map.
+            curValue = zoomIntoMap((Map) curValue, step.num);
+            break;
+          case ARRAY_ELEMENT:
+            // "[###]" means get an element from a collection. In this case,
+            // the current value can either be an array, or a Collection
+            // object.
+            curValue = zoomIntoArray(curValue, step.num);
+            break;
+          default:
+            throw new IllegalArgumentException("Unexpected accessor " +
+                    step.accessor + " in an access ID");
+        }
+        curName += "." + step.accessor;
       }
 
       result.put(curName, StrUtils.sanitizeStringValue(Objects.toString(curValue)));
@@ -133,27 +151,20 @@ public class AccessID {
   /**
    * Zoom into the given map object based on the given accessor.
    * @param map The map object to zoom in.
-   * @param accessor The accessor contains the hash of the key.
+   * @param hash The hash of the key.
    * @return The corresponding value object.
    */
-  private Object zoomIntoMap(Map map, String accessor) {
-    int hash = Integer.parseInt(accessor.substring(4, accessor.length() - 1));
-    for (Object key : map.keySet()) {
-      if (Variable.getHash(key) == hash) {
-        return map.get(key);
-      }
-    }
-    return null;
+  private Object zoomIntoMap(Map map, int hash) {
+    return KeyHashIndex.valueOf(map, hash);
   }
 
   /**
    * Zoom into the given array/collection based on the given accessor.
    * @param array The array/collection object to zoom in.
-   * @param accessor The accessor containing the index.
+   * @param index The index of the element.
    * @return The corresponding element.
    */
-  private Object zoomIntoArray(Object array, String accessor) {
-    int index = Integer.parseInt(accessor.substring(1, accessor.length() - 1));
+  private Object zoomIntoArray(Object array, int index) {
     if (array instanceof Collection) {
 			Iterator it = ((Collection) array).iterator();
 			Object element = null;
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Match access IDs against a set of access paths, e.g., the ones of the
+ * interesting variables or the patterns of the variable filters, and get the
+ * values associated with the matching paths. The access paths are compiled
+ * into a trie of their segments, i.e., the parts between the dots. A "*" in a
+ * segment matches any characters within the segment, e.g., "get(*)" matches
+ * "get(-1422455)", and a "**" segment matches any number of segments. So an
+ * access ID is matched in time proportional to its length, no matter how many
+ * access paths there are.
+ *
+ * This is a copy of cofi.variable.AccessPathMatcher, as the client only
+ * depends on java.util; keep the two in sync.
+ *
+ * @param <T> The type of the values associated with the access paths.
+ */
+class AccessPathMatcher<T> {
+  private static class Node<T> {
+    final HashMap<String, Node<T>> children = new HashMap<>();
+    final ArrayList<Wildcard<T>> wildcards = new ArrayList<>();
+    // The node for a "**" after this one.
+    Node<T> anySegments = null;
+    // Whether this node is for a "**", i.e., it stays here on any segment.
+    boolean isAnySegments = false;
+    // The values of the access paths ending at this node.
+    final ArrayList<T> values = new ArrayList<>();
+  }
+
+  private static class Wildcard<T> {
+    final String pattern;
+    final Node<T> node = new Node<>();
+
+    Wildcard(String pattern) {
+      this.pattern = pattern;
+    }
+  }
+
+  private final Node<T> root = new Node<>();
+
+  /**
+   * Add an access path.
+   * @param path The access path, e.g., "Foo.instance.map.get(*).value".
+   * @param value The value associated with the path.
+   */
+  void add(String path, T value) {
+    Node<T> node = root;
+    for (String segment : path.split("\\.")) {
+      if (segment.equals("**")) {
+        if (node.anySegments == null) {
+          node.anySegments = new Node<>();
+          node.anySegments.isAnySegments = true;
+        }
+        node = node.anySegments;
+      } else if (segment.indexOf('*') < 0) {
+        Node<T> child = node.children.get(segment);
+        if (child == null) {
+          child = new Node<>();
+          node.children.put(segment, child);
+        }
+        node = child;
+      } else {
+        Wildcard<T> wildcard = null;
+        for (Wildcard<T> w : node.wildcards) {
+          if (w.pattern.equals(segment)) {
+            wildcard = w;
+            break;
+          }
+        }
+        if (wildcard == null) {
+          wildcard = new Wildcard<>(segment);
+          node.wildcards.add(wildcard);
+        }
+        node = wildcard.node;
+      }
+    }
+    node.values.add(value);
+  }
+
+  /**
+   * Get the values of all the access paths that match the access ID.
+   * @param accessId The access ID, with or without a leading node ID, e.g.,
+   *                 "nd1-Foo.instance.map.get(3).value".
+   * @return The values, or an empty list if no path matches the access ID.
+   */
+  ArrayList<T> match(String accessId) {
+    String[] segments = accessId.substring(skipNodeId(accessId)).split("\\.");
+    ArrayList<Node<T>> frontier = new ArrayList<>();
+    reach(frontier, root);
+    for (int i = 0; i < segments.length && !frontier.isEmpty(); ++i) {
+      frontier = step(frontier, segments[i], true);
+    }
+    ArrayList<T> values = new ArrayList<>();
+    for (Node<T> node : frontier) {
+      values.addAll(node.values);
+    }
+    return values;
+  }
+
+  /**
+   * Get the values of all the access paths that match the path or a prefix of
+   * it. A segment with "*" in the path, e.g., "get(*)", stands for any
+   * element. It matches if the access path matches any element (definite), or
+   * if the access path may match some element (not definite).
+   * @param segments The segments of the path.
+   * @param length The number of segments to match, from the first one.
+   * @param definite Whether a segment with "*" has to match any element.
+   * @return The values, or an empty list if no path matches.
+   */
+  ArrayList<T> matchPrefixes(
+          String[] segments, int length, boolean definite) {
+    ArrayList<T> values = new ArrayList<>();
+    ArrayList<Node<T>> frontier = new ArrayList<>();
+    reach(frontier, root);
+    for (int i = 0; ; ++i) {
+      for (Node<T> node : frontier) {
+        values.addAll(node.values);
+      }
+      if (i == length || frontier.isEmpty()) {
+        return values;
+      }
+      frontier = step(frontier, segments[i], definite);
+    }
+  }
+
+  /**
+   * Get the nodes reached from the frontier by the segment.
+   */
+  private static <T> ArrayList<Node<T>> step(
+          ArrayList<Node<T>> frontier, String segment, boolean definite) {
+    boolean anyElement = !definite && segment.indexOf('*') >= 0;
+    ArrayList<Node<T>> next = new ArrayList<>();
+    for (Node<T> node : frontier) {
+      if (node.isAnySegments) {
+        reach(next, node);
+      }
+      if (anyElement) {
+        for (Node<T> child : node.children.values()) {
+          reach(next, child);
+        }
+      } else {
+        Node<T> child = node.children.get(segment);
+        if (child != null) {
+          reach(next, child);
+        }
+      }
+      for (Wildcard<T> wildcard : node.wildcards) {
+        if (anyElement || matchesSegment(wildcard.pattern, segment)) {
+          reach(next, wildcard.node);
+        }
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Add the node to the nodes, along with the "**" after it, which may match
+   * no segment.
+   */
+  private static <T> void reach(ArrayList<Node<T>> nodes, Node<T> node) {
+    while (node != null && !nodes.contains(node)) {
+      nodes.add(node);
+      node = node.anySegments;
+    }
+  }
+
+  /**
+   * Match a segment against a pattern where "*" matches any characters.
+   */
+  private static boolean matchesSegment(String pattern, String segment) {
+    int p = 0, s = 0, starP = -1, starS = 0;
+    while (s < segment.length()) {
+      if (p < pattern.length() && pattern.charAt(p) == '*') {
+        starP = p++;
+        starS = s;
+      } else if (p < pattern.length() && pattern.charAt(p) == segment.charAt(s)) {
+        p++;
+        s++;
+      } else if (starP >= 0) {
+        p = starP + 1;
+        s = ++starS;
+      } else {
+        return false;
+      }
+    }
+    while (p < pattern.length() && pattern.charAt(p) == '*') {
+      p++;
+    }
+    return p == pattern.length();
+  }
+
+  /**
+   * Get the start of the access path in the access ID, i.e., skip the leading
+   * node ID "nd#-", if any.
+   */
+  private static int skipNodeId(String accessId) {
+    if (!accessId.startsWith("nd")) {
+      return 0;
+    }
+    int idx = 2;
+    if (idx < accessId.length() && accessId.charAt(idx) == '-') {
+      idx++;
+    }
+    int digitStart = idx;
+    while (idx < accessId.length() && Character.isDigit(accessId.charAt(idx))) {
+      idx++;
+    }
+    if (idx == digitStart) {
+      return 0;
+    }
+    return accessId.indexOf('-', 3) + 1;
+  }
+}
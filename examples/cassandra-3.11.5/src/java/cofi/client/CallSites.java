@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+/**
+ * The call sites of the hooks of the current thread, as tagged by
+ * cofi.instrumentation.CallSiteTagger. The tagger assigns a static ID to each
+ * call of a Client hook, and to each call from the outside into a method that
+ * reaches a hook, e.g., MessagingService.sendOneWay(). The tagged calls
+ * record their IDs here right before they are made, and the hooks take them.
+ * A call into a method that reaches a hook restores the entry site of its
+ * caller once it returns or throws, so a call that never gets to a hook
+ * leaves nothing behind for the next one.
+ */
+public class CallSites {
+  // The IDs of the entry site and the hook site of the current thread.
+  private static final ThreadLocal<int[]> sites = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[2];
+    }
+  };
+
+  /**
+   * Record the call into a method that reaches a hook.
+   * @param id The ID of the call site.
+   * @return The entry site before the call, to restore with exit().
+   */
+  public static int enter(int id) {
+    int[] threadSites = sites.get();
+    int prev = threadSites[0];
+    threadSites[0] = id;
+    return prev;
+  }
+
+  /**
+   * Restore the entry site when the call recorded by enter() is over.
+   * @param prev The entry site returned by enter().
+   */
+  public static void exit(int prev) {
+    sites.get()[0] = prev;
+  }
+
+  /**
+   * Record the call of a hook.
+   * @param id The ID of the call site.
+   */
+  public static void atHook(int id) {
+    sites.get()[1] = id;
+  }
+
+  /**
+   * Take the call site of the hook being called, combining the entry site, if
+   * any, with the hook site. The entry site stays until its call is over.
+   * @return The ID of the call site, or 0 if the hook is not tagged.
+   */
+  static int take() {
+    int[] threadSites = sites.get();
+    int hook = threadSites[1];
+    threadSites[1] = 0;
+    if (hook == 0) {
+      return 0;
+    }
+    int id = 31 * threadSites[0] + hook;
+    return id == 0 ? 1 : id;
+  }
+}
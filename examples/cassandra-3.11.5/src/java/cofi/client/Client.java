@@ -17,15 +17,15 @@ package cofi.client;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.lang.reflect.Method;
 import java.util.*;
 
 public class Client {
   // The current stage of yCozy.
   private enum Stage { MINING, INJECTION }
   private static Stage stage;
-  // The access paths to track during the PROFILING stage.
-  private static ArrayList<AccessPath> accessPaths = new ArrayList<>();
+  // The access paths to track during the PROFILING stage, resolved for
+  // repeated evaluation.
+  private static ArrayList<AccessChain> accessPaths = new ArrayList<>();
   // The access IDs to track during the TESTING stage.
   private static ArrayList<AccessID> accessIDs = new ArrayList<>();
 
@@ -58,6 +58,7 @@ public class Client {
     switch (stage) {
       case MINING:
         loadAccessPathsFromInterestingVariables();
+        VariableFilter.load();
         break;
       case INJECTION:
         loadAccessPathsFromCurrentInvariant();
@@ -78,7 +79,7 @@ public class Client {
       while ((newLine = reader.readLine()) != null) {
         newLine = newLine.trim();
         InterestingVariable newVar = new InterestingVariable(newLine);
-        accessPaths.add(newVar.getAccessPath());
+        accessPaths.add(new AccessChain(newVar.getAccessPath()));
       }
       logger.info("Loaded " + accessPaths.size() + " access paths.");
     } catch (Throwable t) {
@@ -86,6 +87,19 @@ public class Client {
               + Config.INTERESTING_VARS_FILENAME, t);
       Runtime.getRuntime().halt(1);
     }
+
+    // Use the extractors generated at instrumentation time, if any.
+    int extractorCnt = 0;
+    for (AccessChain path : accessPaths) {
+      try {
+        if (path.loadExtractor()) {
+          extractorCnt++;
+        }
+      } catch (Throwable t) {
+        logger.warn("Fail to load the extractor of " + path, t);
+      }
+    }
+    logger.info("Loaded " + extractorCnt + " extractors.");
   }
 
   /**
@@ -126,6 +140,7 @@ public class Client {
    */
   public static boolean beforeSend(
           String sender, String receiver, String msgType) {
+    int callSite = CallSites.take();
     String msgID = IDUtils.getMsgIDFromType(sender, receiver, msgType);
     logger.debug("About to send message " + msgID);
 
@@ -135,7 +150,7 @@ public class Client {
         HashSet<Variable> vars = new HashSet<>();
         getVariablesAndValues(vars);
         // Write the variables to the profiling log.
-        String dumpID = IDUtils.getDumpID();
+        String dumpID = IDUtils.getDumpID(callSite);
         if (!ProfilingLog.curThreadHasDumps()) {
           ProfilingLog.write1stDump(vars, dumpID);
         }
@@ -143,7 +158,8 @@ public class Client {
         return true;
       case INJECTION:
         getAndReportInvariantVariables();
-        return Messenger.reportSendEvent(sender, receiver, msgID, msgType);
+        return Messenger.reportSendEvent(
+                sender, receiver, msgID, msgType, callSite);
       default:
         return true;
     }
@@ -162,6 +178,7 @@ public class Client {
    */
   public static void afterHandle(
           String sender, String receiver, String msgType) {
+    int callSite = CallSites.take();
     String msgID = IDUtils.getMsgIDFromType(sender, receiver, msgType);
     logger.debug("Finish handling message " + msgID);
     if (stage == Stage.MINING) {
@@ -169,7 +186,7 @@ public class Client {
       HashSet<Variable> vars = new HashSet<>();
       getVariablesAndValues(vars);
       // Make sure the current thread has an initial dump.
-      String dumpID = IDUtils.getDumpID();
+      String dumpID = IDUtils.getDumpID(callSite);
       if (!ProfilingLog.curThreadHasDumps()) {
         ProfilingLog.write1stDump(vars, dumpID);
       }
@@ -189,17 +206,26 @@ public class Client {
    * @param vars The retrieved variables.
    */
   private static void getVariablesAndValues(HashSet<Variable> vars) {
-    for (AccessPath path : accessPaths) {
-      String rootClassName = path.getRootClass();
-      ArrayList<String> accessors = path.getAccessors();
-      String accessor = accessors.get(0);
+    for (AccessChain path : accessPaths) {
+      // Take the compiled walk, if there is one.
+      if (path.getExtractor() != null) {
+        try {
+          path.getExtractor().extract(path, vars);
+        } catch (Throwable t) {
+          logger.error("Fail to extract variables from " + path, t);
+          Runtime.getRuntime().halt(1);
+        }
+        logger.debug("Got " + vars.size() + " interesting variables.");
+        continue;
+      }
+
+      String rootClassName = path.getRootClassName();
+      String accessor = path.getAccessors().get(0);
 
       // Get the static field object for this access path.
       Object staticField = null;
       try {
-        Class rootClass = Class.forName(rootClassName);
-        Method getter = rootClass.getMethod("yGet_" + accessor);
-        staticField = getter.invoke(null);
+        staticField = path.getStaticField();
       } catch (Throwable t) {
         logger.info("Fail to get static variable: " +
                 rootClassName + "." + accessor,
@@ -209,7 +235,8 @@ public class Client {
 
       // Zoom in according to the access path.
       String curPath = rootClassName + "." + accessor;
-      Variable.zoomInAndGetVars(staticField, accessors, 0, curPath, vars);
+      Variable.zoomInAndGetVars(staticField, path, 0, curPath,
+              path.newPathSegments(), vars);
       logger.debug("Got " + vars.size() + " interesting variables.");
     }
   }
@@ -28,8 +28,21 @@ public class Config {
   static final String STAGE_FILENAME = ROOT_DIRECTORY + "/stage.txt";
   // The interesting variable file.
   static final String INTERESTING_VARS_FILENAME = ROOT_DIRECTORY + "/interesting-variables.txt";
+  // The include and exclude patterns of the variables to collect.
+  static final String VARIABLE_FILTERS_FILENAME = ROOT_DIRECTORY + "/variable-filters.txt";
   // The directory for profiling logs.
   static final String PROFILING_LOG_DIRECTORY = ROOT_DIRECTORY + "/profiling-logs";
+  // Whether to write the profiling logs in the binary, dictionary-encoded
+  // format (td#_nd#.bin) instead of the text format (td#_nd#.txt).
+  static final boolean BINARY_PROFILING_LOGS = false;
+  // Whether to identify the send and receive events by the call site IDs
+  // assigned at instrumentation time, instead of hashing the whole call stack.
+  // Set it to false to keep the stack hash identities, e.g., to compare the
+  // results with earlier runs.
+  static final boolean CALL_SITE_IDS = true;
+  // The number of frames hashed for the events without call site IDs, in the
+  // call site mode.
+  static final int STACK_HASH_DEPTH = 8;
 
   // The address of the yCozy engine.
   static final String FI_ENGINE_IP = "127.0.0.1";
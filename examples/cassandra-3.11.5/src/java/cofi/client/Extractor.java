@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+import java.util.HashSet;
+
+/**
+ * A compiled walk of an access path, generated at instrumentation time by
+ * cofi.instrumentation.ExtractorGenerator. It collects the same variables as
+ * Variable.zoomInAndGetVars() does with the AccessChain of the path, but
+ * calls the yGet_ getters directly wherever the classes are known, so that
+ * the JIT can inline the walk.
+ */
+interface Extractor {
+  /**
+   * The name of the extractor class of an access path. It must be kept in
+   * sync with cofi.instrumentation.ExtractorGenerator.
+   * @param path The access path.
+   * @return The name of the class.
+   */
+  static String classNameOf(String path) {
+    return "cofi.client.Extractor_" + Integer.toHexString(path.hashCode());
+  }
+
+  /**
+   * @return The access path this extractor walks.
+   */
+  String path();
+
+  /**
+   * Collect the variables of the access path.
+   * @param chain The access path, to fall back to where the classes are not
+   *              known at instrumentation time.
+   * @param vars The set of variables to collect into.
+   */
+  void extract(AccessChain chain, HashSet<Variable> vars) throws Throwable;
+}
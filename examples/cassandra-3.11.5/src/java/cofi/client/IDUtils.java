@@ -16,15 +16,65 @@
 package cofi.client;
 
 import java.util.HashSet;
-import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class implements the methods for retrieving different types of IDs.
  */
 public class IDUtils {
-  // The counter for each type of message.
-  static HashMap<String, Integer> msgCounter = new HashMap<>();
+  /**
+   * The sender, the receiver and the type of a message, as given to the hooks.
+   */
+  private static class MsgKey {
+    final String sender, receiver, msgType;
+    final int hash;
+
+    MsgKey(String sender, String receiver, String msgType) {
+      this.sender = sender;
+      this.receiver = receiver;
+      this.msgType = msgType;
+      hash = (sender.hashCode() * 31 + receiver.hashCode()) * 31
+              + msgType.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof MsgKey)) {
+        return false;
+      }
+      MsgKey another = (MsgKey) o;
+      return hash == another.hash
+              && sender.equals(another.sender)
+              && receiver.equals(another.receiver)
+              && msgType.equals(another.msgType);
+    }
+  }
+
+  /**
+   * The counter of the messages with the same ID prefix.
+   */
+  private static class MsgCounter {
+    // The message ID without the count, i.e., "sender_receiver_msgType_".
+    final String prefix;
+    final AtomicInteger count = new AtomicInteger();
+
+    MsgCounter(String prefix) {
+      this.prefix = prefix;
+    }
+  }
+
+  // The counter for each type of message. Different keys may share a counter,
+  // e.g., the types "A B" and "A_B", since they give the same ID prefix.
+  private static ConcurrentHashMap<MsgKey, MsgCounter> msgCounters =
+          new ConcurrentHashMap<>();
+  private static ConcurrentHashMap<String, MsgCounter> msgCountersByPrefix =
+          new ConcurrentHashMap<>();
 
   // A mapping from a thread to the message it is handling.
   private static ConcurrentHashMap<Thread, String> handlingMsgs =
@@ -37,23 +87,28 @@ public class IDUtils {
    * Get a new message ID for the specified message type. Message IDs are in the
    * form of "sender_receiver_msgType_count". Assuming that the messages between
    * two nodes follow FIFO, this ID can be used to associate the sending and the
-   * handling of the same message on two nodes.
+   * handling of the same message on two nodes. The counters are taken without
+   * locking, and the ID prefix is built only once for each type of message.
    * @param sender The sender ID of the message.
    * @param receiver The receiver ID of the message.
    * @param msgType The type of the message that needs an ID.
    * @return The message ID.
    */
-  static synchronized String getMsgIDFromType(
+  static String getMsgIDFromType(
           String sender, String receiver, String msgType) {
-    msgType = msgType.replace(" ", "_");
-    String msgTypeWithSenderReceiver = sender + "_" + receiver + "_" + msgType;
-    int count = 0;
-    if (msgCounter.containsKey(msgTypeWithSenderReceiver)) {
-      count = msgCounter.get(msgTypeWithSenderReceiver);
+    MsgKey key = new MsgKey(sender, receiver, msgType);
+    MsgCounter counter = msgCounters.get(key);
+    if (counter == null) {
+      String prefix = sender + "_" + receiver + "_" +
+              msgType.replace(" ", "_") + "_";
+      MsgCounter newCounter = new MsgCounter(prefix);
+      counter = msgCountersByPrefix.putIfAbsent(prefix, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+      msgCounters.putIfAbsent(key, counter);
     }
-    count++;
-    msgCounter.put(msgTypeWithSenderReceiver, count);
-    return msgTypeWithSenderReceiver + "_" + count;
+    return counter.prefix + counter.count.incrementAndGet();
   }
 
   /**
@@ -90,10 +145,27 @@ public class IDUtils {
   }
 
   /**
-   * Generate a dump ID.
+   * Generate a dump ID. In the call site mode, the dump ID is derived from the
+   * call site of the hook, or from the top Config.STACK_HASH_DEPTH frames of
+   * the call stack if the hook is not tagged.
+   * @param callSite The ID of the call site of the hook, or 0 if not tagged.
+   * @return The dump ID.
+   */
+  static String getDumpID(int callSite) {
+    if (!Config.CALL_SITE_IDS) {
+      return getStackDumpID();
+    } else if (callSite != 0) {
+      return "site_at_c" + callSite + "_of_" + getCurThreadGUID();
+    }
+    return "stack_at_s" + Messenger.getStackHash(Config.STACK_HASH_DEPTH) +
+            "_of_" + getCurThreadGUID();
+  }
+
+  /**
+   * Generate a dump ID from the whole call stack.
    * @return The dump ID.
    */
-  static String getDumpID() {
+  private static String getStackDumpID() {
     String methodName = "";
     int stackHash = 0;
     for (StackTraceElement frame : new Throwable().getStackTrace()) {
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Look up the entries of maps by the hashes of their keys, i.e., the
+ * get(<hash>) accessors, without hashing every key on every event.
+ * - The hash of a key is cached by the identity of the key while the key is
+ *   alive, if its hash only depends on the values of its own fields, i.e., it
+ *   is an application class whose fields hold strings, boxed primitives or
+ *   enums. If those fields are all final, the hash is computed once. If not,
+ *   the values of the fields are kept along, and the key is hashed again once
+ *   any of them changes. The other keys are hashed on every lookup as before.
+ * - The keys of a map are indexed by their hashes while the map is alive, if
+ *   the hashes of its keys never change, i.e., the keys are null, values
+ *   (see Variable.isValueClass()), or hashed once as above. The index is
+ *   rebuilt when the key it gives is gone, or when a hash is missing from it
+ *   and the size of the map has changed. Otherwise, a missing hash is taken
+ *   as not in the map, so a map that replaces a key with another one of a
+ *   new hash but keeps its size is only noticed once the replaced key is
+ *   looked up or the size changes.
+ * - The other maps, and the hashes shared by several keys, fall back to
+ *   scanning the keys, with their hashes cached as above, so that the first
+ *   matching key wins as before. A map is indexed again once its size
+ *   changes.
+ */
+final class KeyHashIndex {
+  private static class CachedHash {
+    final int hash;
+    // The values of the key's fields when the hash is computed, or null if
+    // they never change.
+    final Object[] fieldValues;
+
+    CachedHash(int hash, Object[] fieldValues) {
+      this.hash = hash;
+      this.fieldValues = fieldValues;
+    }
+  }
+
+  private static class Index {
+    // The key of each hash.
+    final HashMap<Integer, Object> keys = new HashMap<>();
+    // The size of the map when it is indexed.
+    final int size;
+    // Whether the hashes of the keys never change. If not, the keys are not
+    // indexed.
+    boolean stable = true;
+
+    Index(int size) {
+      this.size = size;
+    }
+  }
+
+  // How the hashes of the objects of a class are cached.
+  private enum Caching { NONE, ONCE, BY_FIELD_VALUES }
+
+  // Stands for the keys sharing a hash, and for the null key, in an index.
+  private static final Object kAmbiguous = new Object();
+  private static final Object kNullKey = new Object();
+
+  // Both maps have weak keys, which are compared by identity.
+  private static final ConcurrentMap<Object, CachedHash> keyHashes =
+          new MapMaker().weakKeys().makeMap();
+  private static final ConcurrentMap<Map, Index> indexes =
+          new MapMaker().weakKeys().makeMap();
+
+  private static final ClassValue<Caching> cachingOf =
+          new ClassValue<Caching>() {
+            @Override
+            protected Caching computeValue(Class<?> cls) {
+              if (Variable.hasValueFieldsOnly(cls, true)) {
+                return Caching.ONCE;
+              } else if (Variable.hasValueFieldsOnly(cls, false)) {
+                return Caching.BY_FIELD_VALUES;
+              }
+              return Caching.NONE;
+            }
+          };
+
+  private KeyHashIndex() {}
+
+  /**
+   * Get the hash of the key, as Variable.computeHash() does.
+   * @param key The key.
+   * @return The hash of the key.
+   */
+  static int hashOf(Object key) {
+    Caching caching =
+            key == null ? Caching.NONE : cachingOf.get(key.getClass());
+    if (caching == Caching.NONE) {
+      return Variable.computeHash(key);
+    }
+    CachedHash cached = keyHashes.get(key);
+    if (caching == Caching.ONCE) {
+      if (cached == null) {
+        cached = new CachedHash(Variable.computeHash(key), null);
+        keyHashes.put(key, cached);
+      }
+      return cached.hash;
+    }
+    Object[] fieldValues = Variable.getFieldValues(key);
+    if (fieldValues == null) {
+      return Variable.computeHash(key);
+    }
+    if (cached == null || !Arrays.equals(cached.fieldValues, fieldValues)) {
+      cached = new CachedHash(Variable.computeHash(key), fieldValues);
+      keyHashes.put(key, cached);
+    }
+    return cached.hash;
+  }
+
+  /**
+   * Check if the hash of the key never changes.
+   */
+  private static boolean hasStableHash(Object key) {
+    return key == null || Variable.isValueClass(key.getClass())
+            || cachingOf.get(key.getClass()) == Caching.ONCE;
+  }
+
+  /**
+   * Get the value of the first key in the map with the given hash.
+   * @param map The map.
+   * @param hash The hash of the key.
+   * @return The value, or null if no key has the hash.
+   */
+  static Object valueOf(Map map, int hash) {
+    Index index = indexes.get(map);
+    if (index != null && !index.stable && map.size() == index.size) {
+      return scan(map, hash);
+    } else if (index != null && index.stable) {
+      Object key = index.keys.get(hash);
+      if (key == kAmbiguous) {
+        return scan(map, hash);
+      } else if (key == kNullKey) {
+        if (map.containsKey(null)) {
+          return map.get(null);
+        }
+      } else if (key != null) {
+        if (map.containsKey(key)) {
+          return map.get(key);
+        }
+      } else if (map.size() == index.size) {
+        return null;
+      }
+    }
+
+    index = buildIndex(map);
+    indexes.put(map, index);
+    if (!index.stable) {
+      return scan(map, hash);
+    }
+    Object key = index.keys.get(hash);
+    if (key == null) {
+      return null;
+    } else if (key == kNullKey) {
+      return map.get(null);
+    } else if (key == kAmbiguous) {
+      return scan(map, hash);
+    }
+    return map.get(key);
+  }
+
+  private static Index buildIndex(Map map) {
+    Index index = new Index(map.size());
+    for (Object key : map.keySet()) {
+      if (!hasStableHash(key)) {
+        index.stable = false;
+        index.keys.clear();
+        break;
+      }
+      int hash = hashOf(key);
+      if (index.keys.putIfAbsent(hash, key == null ? kNullKey : key) != null) {
+        index.keys.put(hash, kAmbiguous);
+      }
+    }
+    return index;
+  }
+
+  private static Object scan(Map map, int hash) {
+    for (Object key : map.keySet()) {
+      if (hashOf(key) == hash) {
+        return map.get(key);
+      }
+    }
+    return null;
+  }
+}
@@ -43,15 +43,25 @@ public class Messenger {
    * @param sender The sender's ID.
    * @param receiver The receiver's ID.
    * @param msgID The message's ID.
+   * @param callSite The ID of the call site of the hook, or 0 if not tagged.
    * @return The engine's decision on whether the message can be sent.
    */
-  static boolean reportSendEvent(String sender, String receiver, String msgID, String msgType) {
+  static boolean reportSendEvent(String sender, String receiver, String msgID,
+                                 String msgType, int callSite) {
+    int siteHash;
+    if (!Config.CALL_SITE_IDS) {
+      siteHash = getStackHash();
+    } else if (callSite != 0) {
+      siteHash = callSite;
+    } else {
+      siteHash = getStackHash(Config.STACK_HASH_DEPTH);
+    }
     StringBuilder sb = new StringBuilder(IDUtils.getCurThreadGUID())
             .append(" send ")
             .append(IDUtils.getHashedNodeID(sender)).append(" ")
             .append(IDUtils.getHashedNodeID(receiver)).append(" ")
             .append(msgID).append(" ")
-            .append(getStackHash() ^ msgType.hashCode()).append("\n");
+            .append(siteHash ^ msgType.hashCode()).append("\n");
 
     boolean pass = reportToYCozyEngine(sb.toString());
     if (!pass) {
@@ -76,6 +86,29 @@ public class Messenger {
     return stackHash;
   }
 
+  /**
+   * Get a hash code for the top frames of the current call stack, for the
+   * events without call site IDs. CoFI's own frames are skipped, so that they
+   * don't take up the depth, and the frames are hashed in order, so that the
+   * same frame twice doesn't cancel out.
+   * @param depth The number of frames of the application to hash.
+   * @return The hash code for the top frames.
+   */
+  static int getStackHash(int depth) {
+    int stackHash = 0;
+    int hashedCnt = 0;
+    for (StackTraceElement frame : new Throwable().getStackTrace()) {
+      if (hashedCnt == depth) {
+        break;
+      }
+      if (!frame.getClassName().startsWith("cofi.client.")) {
+        stackHash = 31 * stackHash + frame.hashCode();
+        hashedCnt++;
+      }
+    }
+    return stackHash;
+  }
+
   /**
    * Send a string to the yCozy engine.
    * @param content The string content to sent.
@@ -15,7 +15,14 @@
  */
 package cofi.client;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -29,6 +36,9 @@ public class ProfilingLog {
   // The profiling log file of each thread.
   private static ConcurrentHashMap<Thread, FileWriter> varLogFiles =
           new ConcurrentHashMap<>();
+  // The binary profiling log file of each thread.
+  private static ConcurrentHashMap<Thread, BinaryLogFile> binaryLogFiles =
+          new ConcurrentHashMap<>();
 
   private static Config.Logger logger = new Config.Logger("YCZ_PROFILINGLOG");
 
@@ -64,6 +74,11 @@ public class ProfilingLog {
           String action,
           String msgId,
           String dumpID) {
+    if (Config.BINARY_PROFILING_LOGS) {
+      writeBinaryEntry(vars, action, msgId, dumpID);
+      return;
+    }
+
     // First, let's record what's going on:
     // Are we sending a message or receiving one? Which message?
     StringBuilder dumpSB = new StringBuilder(action).append("\n");
@@ -124,4 +139,147 @@ public class ProfilingLog {
     }
     return varLogFiles.get(curThread);
   }
+
+  /**
+   * The binary profiling log of a thread. The format is described in
+   * cofi.mining.BinaryProfilingLogWriter, which must be kept in sync with this
+   * class. The access paths, dump IDs, and unusual types are written once, and
+   * referred to by their indices afterwards.
+   */
+  private static class BinaryLogFile {
+    private static final byte TAG_DEF = 1;
+    private static final byte TAG_ENTRY = 2;
+    private static final byte ACTION_INIT = 0;
+    private static final byte ACTION_SEND = 1;
+    private static final byte ACTION_RECEIVE = 2;
+    private static final byte ACTION_OTHER = 3;
+    private static final byte VALUE_INT = 0;
+    private static final byte VALUE_TRUE = 1;
+    private static final byte VALUE_FALSE = 2;
+    private static final byte VALUE_FLOAT = 3;
+    private static final byte VALUE_STRING = 4;
+    private static final byte VALUE_OTHER = 5;
+
+    private final OutputStream out;
+    private final HashMap<String, Integer> dictionary = new HashMap<>();
+    // The new dictionary entries and the body of the entry being written.
+    private final ByteArrayOutputStream defs = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    BinaryLogFile(String fileName) throws IOException {
+      out = new BufferedOutputStream(new FileOutputStream(fileName));
+      out.write(new byte[]{'C', 'O', 'F', 'B', 1});
+    }
+
+    void writeEntry(HashSet<Variable> vars, String action, String msgId,
+                    String dumpID) throws IOException {
+      body.write(TAG_ENTRY);
+      if (action.equals("init")) {
+        body.write(ACTION_INIT);
+      } else if (action.equals("send")) {
+        body.write(ACTION_SEND);
+      } else if (action.equals("receive")) {
+        body.write(ACTION_RECEIVE);
+      } else {
+        body.write(ACTION_OTHER);
+        writeString(body, action);
+      }
+      writeString(body, String.valueOf(msgId));
+      writeVarint(body, 1);
+      writeVarint(body, ref(dumpID));
+      writeVarint(body, vars.size());
+      for (Variable v : vars) {
+        writeVarint(body, ref(v.accessPath));
+        writeValue(String.valueOf(v.type), String.valueOf(v.value));
+      }
+
+      defs.writeTo(out);
+      body.writeTo(out);
+      out.flush();
+      defs.reset();
+      body.reset();
+    }
+
+    private void writeValue(String type, String value) throws IOException {
+      if (type.equals("int")) {
+        try {
+          long l = Long.parseLong(value);
+          if (Long.toString(l).equals(value)) {
+            body.write(VALUE_INT);
+            writeVarint(body, (l << 1) ^ (l >> 63));
+            return;
+          }
+        } catch (NumberFormatException nfe) {
+          // Not a canonical long. Write it as a string.
+        }
+      } else if (type.equals("boolean")
+              && (value.equals("true") || value.equals("false"))) {
+        body.write(value.equals("true") ? VALUE_TRUE : VALUE_FALSE);
+        return;
+      } else if (type.equals("float")) {
+        body.write(VALUE_FLOAT);
+        writeString(body, value);
+        return;
+      } else if (type.equals("string")) {
+        body.write(VALUE_STRING);
+        writeString(body, value);
+        return;
+      }
+      body.write(VALUE_OTHER);
+      writeVarint(body, ref(type));
+      writeString(body, value);
+    }
+
+    private int ref(String str) throws IOException {
+      Integer id = dictionary.get(str);
+      if (id == null) {
+        id = dictionary.size();
+        dictionary.put(str, id);
+        defs.write(TAG_DEF);
+        writeString(defs, str);
+      }
+      return id;
+    }
+
+    private static void writeString(OutputStream os, String str)
+            throws IOException {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      writeVarint(os, bytes.length);
+      os.write(bytes);
+    }
+
+    private static void writeVarint(OutputStream os, long value)
+            throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        os.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      os.write((int) value);
+    }
+  }
+
+  /**
+   * Write the given variables to the binary profiling log of the current
+   * thread.
+   */
+  private static void writeBinaryEntry(
+          HashSet<Variable> vars,
+          String action,
+          String msgId,
+          String dumpID) {
+    Thread curThread = Thread.currentThread();
+    try {
+      BinaryLogFile file = binaryLogFiles.get(curThread);
+      if (file == null) {
+        file = new BinaryLogFile(Config.PROFILING_LOG_DIRECTORY
+                + "/" + IDUtils.getCurThreadGUID() + ".bin");
+        binaryLogFiles.put(curThread, file);
+      }
+      file.writeEntry(vars, action, msgId, dumpID);
+    } catch (Throwable t) {
+      logger.error("Error when " + IDUtils.getCurThreadGUID() +
+              " tries to write to the binary profiling log.", t);
+      Runtime.getRuntime().halt(1);
+    }
+  }
 }
@@ -15,6 +15,9 @@
  */
 package cofi.client;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -62,17 +65,25 @@ public class Variable {
    * it reaches the end of the access path or the given object is null.
    * @param curObj The given object, it will either be added to the collected
    *               variables, or be zoomed in.
-   * @param accessors The field names in the access path.
+   * @param chain The access path.
    * @param curIndex The index in the accessors for the curObject.
    * @param curPath The prefix of the final access ID.
+   * @param segments The segments of the access path, as made by
+   *                 AccessChain.newPathSegments(), for the variable filters.
    * @param variables The map from access IDs to interesting variables.
    */
   static void zoomInAndGetVars(
           Object curObj,
-          ArrayList<String> accessors,
+          AccessChain chain,
           int curIndex,
           String curPath,
+          String[] segments,
           HashSet<Variable> variables) {
+    // Skip the objects whose variables will all be filtered out.
+    if (!VariableFilter.mayAccept(curPath, segments, chain, curIndex)) {
+      return;
+    }
+
     // If the current variable is null, record it. All the non-primitive
     // variables will be casted into strings, so their types are all "string".
     if (curObj == null) {
@@ -81,53 +92,49 @@ public class Variable {
     }
 
     // If we have reached the end of the access path, record the current var.
-    if (curIndex == accessors.size() - 1) {
+    if (curIndex == chain.size() - 1) {
       recordVariable(curPath, curObj, variables);
       return;
     }
 
     // Otherwise, let's zoom in according to the accessors.
     try {
-      String accessor = accessors.get(curIndex + 1);
-      Class objClass = curObj.getClass();
-
-      // get() is usually used to access the referred object of an Atomic* obj.
-      if (accessor.equals("get()")) {
-        Object nextObj = objClass.getMethod("get").invoke(curObj);
-        String newPath = curPath + ".get()";
-        zoomInAndGetVars(nextObj, accessors, curIndex + 1, newPath, variables);
-        return;
-      }
-
-      // get(*) is used to get all the elements inside a collection or a map.
-      if (accessor.equals("get(*)")) {
-        zoomInAllElements(curPath, curObj, curIndex, accessors, variables);
-        return;
-      }
-
-      // get(<number>) is used to get an element from a collection or a
-      // map. The element's index or key hash equals to the <number>.
-      if (accessor.startsWith("get(") && accessor.endsWith(")")) {
-        String num = accessor.substring(4, accessor.length() - 1);
-        zoomInOneElement(curPath, curObj, num, curIndex, accessors, variables);
-        return;
-      }
-
-      // [*] is used to get all the elements inside an array.
-      if (accessor.equals("[*]")) {
-        zoomInArray(curObj, accessors, curIndex, curPath, variables);
-        return;
-      }
-
-      // [<index>] is used to get the element at the index from an array.
-      if (accessor.startsWith("[") && accessor.endsWith("]")) {
-        String idx = accessor.substring(1, accessor.length() - 1);
-        zoomInArrayElmnt(curPath, curObj, idx, curIndex, accessors, variables);
-        return;
+      AccessChain.Step step = chain.getStep(curIndex + 1);
+      switch (step.kind) {
+        case GET:
+          // get() is usually used to access the referred object of an Atomic*
+          // obj.
+          Object nextObj = step.get(curObj);
+          String newPath = curPath + ".get()";
+          zoomInAndGetVars(nextObj, chain, curIndex + 1, newPath, segments,
+                  variables);
+          break;
+        case ALL_ELEMENTS:
+          // get(*) is used to get all the elements inside a collection or a
+          // map.
+          zoomInAllElements(curPath, curObj, curIndex, chain, segments,
+                  variables);
+          break;
+        case ELEMENT:
+          // get(<number>) is used to get an element from a collection or a
+          // map. The element's index or key hash equals to the <number>.
+          zoomInOneElement(curPath, curObj, step, curIndex, chain, segments,
+                  variables);
+          break;
+        case ALL_ARRAY_ELEMENTS:
+          // [*] is used to get all the elements inside an array.
+          zoomInArray(curObj, chain, curIndex, curPath, segments, variables);
+          break;
+        case ARRAY_ELEMENT:
+          // [<index>] is used to get the element at the index from an array.
+          zoomInArrayElmnt(curPath, curObj, step, curIndex, chain, segments,
+                  variables);
+          break;
+        default:
+          // Otherwise, the accessor is a field name. Access it.
+          zoomInField(curPath, curObj, step, curIndex, chain, segments,
+                  variables);
       }
-
-      // Otherwise, the accessor is a field name. Access it.
-      zoomInField(curPath, curObj, accessor, curIndex, accessors, variables);
     } catch (Throwable t) {
       logger.error("Fail to zoom in from " + curPath, t);
       Runtime.getRuntime().halt(1);
@@ -139,22 +146,35 @@ public class Variable {
    * be a collection or a map.
    * @param curPath The access path of the current object.
    * @param curObj The current object.
-   * @param numStr The index or the key hash of the specified element.
+   * @param step The accessor with the index or the key hash of the specified
+   *             element.
    * @param curIndex The accessor index when getting the current object.
-   * @param accessors The set of accessors.
+   * @param chain The access path.
+   * @param segments The segments of the access path.
    * @param variables The set of variables.
    */
   private static void zoomInOneElement(
           String curPath,
           Object curObj,
-          String numStr,
+          AccessChain.Step step,
           int curIndex,
-          ArrayList<String> accessors,
+          AccessChain chain,
+          String[] segments,
           HashSet<Variable> variables) {
-    int nextIndex = curIndex + 1, num = Integer.parseInt(numStr);
-    Object nextObj = null;
-    String nextPath = curPath + ".get(" + numStr + ")";
+    zoomInAndGetVars(elementOf(curObj, step.num, curPath), chain,
+            curIndex + 1, curPath + "." + step.accessor, segments, variables);
+  }
 
+  /**
+   * Get one specified element in the given object. The given object can be a
+   * collection or a map.
+   * @param curObj The current object.
+   * @param num The index or the key hash of the specified element.
+   * @param curPath The access path of the current object.
+   * @return The element, or null if there's no such element.
+   */
+  static Object elementOf(Object curObj, int num, String curPath) {
+    Object nextObj = null;
     if (curObj instanceof Collection) {
       int index = 0;
       for (Object element : (Collection) curObj) {
@@ -166,18 +186,12 @@ public class Variable {
         }
       }
     } else if (curObj instanceof Map) {
-      for (Object key : ((Map) curObj).keySet()) {
-        if (getHash(key) == num) {
-          nextObj = ((Map) curObj).get(key);
-          break;
-        }
-      }
+      nextObj = KeyHashIndex.valueOf((Map) curObj, num);
     } else {
       throw new IllegalArgumentException("The specified object is neither a " +
               "collection nor a map. Path=" + curPath + "; Value=" + curObj);
     }
-
-    zoomInAndGetVars(nextObj, accessors, nextIndex, nextPath, variables);
+    return nextObj;
   }
 
   /**
@@ -186,14 +200,16 @@ public class Variable {
    * @param curPath The access path of the current object.
    * @param curObj The current object.
    * @param curIndex The accessor index when getting the current object.
-   * @param accessors The set of accessors.
+   * @param chain The access path.
+   * @param segments The segments of the access path.
    * @param variables The set of variables.
    */
   private static void zoomInAllElements(
           String curPath,
           Object curObj,
           int curIndex,
-          ArrayList<String> accessors,
+          AccessChain chain,
+          String[] segments,
           HashSet<Variable> variables) {
     int nextIndex = curIndex + 1;
     if (curObj instanceof Collection) {
@@ -201,9 +217,10 @@ public class Variable {
       for (Object nextObj : (Collection) curObj) {
         zoomInAndGetVars(
                 nextObj,
-                accessors,
+                chain,
                 nextIndex,
                 curPath + ".get(" + index++ + ")",
+                segments,
                 variables);
       }
     } else if (curObj instanceof Map) {
@@ -211,9 +228,10 @@ public class Variable {
         Object value = ((Map) curObj).get(key);
         zoomInAndGetVars(
                 value,
-                accessors,
+                chain,
                 nextIndex,
                 curPath + ".get(" + getHash(key) + ")",
+                segments,
                 variables);
       }
     } else {
@@ -228,7 +246,7 @@ public class Variable {
    * @param obj The object of the given variable.
    * @param vars The set of variables to record into.
    */
-  private static void recordVariable(
+  static void recordVariable(
           String path, Object obj, HashSet<Variable> vars) {
     // Get the type of the object.
     String objType;
@@ -282,50 +300,49 @@ public class Variable {
   }
 
   /**
-   * Check if the given object instantiates one of the Atomic* classes, i.e.,
+   * Check if the given class is one of the Atomic* classes, i.e.,
    * AtomicReference, AtomicBoolean, AtomicInteger, and AtomicLong.
-   * @param o The object to check.
-   * @return Returns true if the object instantiates one of the Atomic* classes.
+   * @param cls The class to check.
+   * @return Returns true if the class is one of the Atomic* classes.
    */
-  private static boolean isAtomic(Object o) {
-    return o instanceof AtomicReference
-            || o instanceof AtomicBoolean
-            || o instanceof AtomicInteger
-            || o instanceof AtomicLong;
+  private static boolean isAtomic(Class<?> cls) {
+    return AtomicReference.class.isAssignableFrom(cls)
+            || AtomicBoolean.class.isAssignableFrom(cls)
+            || AtomicInteger.class.isAssignableFrom(cls)
+            || AtomicLong.class.isAssignableFrom(cls);
   }
 
   /**
    * Zoom into the field of the current object.
    * @param curPath The access path of the current object.
    * @param curObj The current object.
-   * @param fieldName The field to get to.
+   * @param step The accessor of the field to get to.
    * @param curIndex The accessor index when getting the current object.
-   * @param accessors The list of accessors.
+   * @param chain The access path.
+   * @param segments The segments of the access path.
    * @param variables The set of variables.
    */
   private static void zoomInField(
           String curPath,
           Object curObj,
-          String fieldName,
+          AccessChain.Step step,
           int curIndex,
-          ArrayList<String> accessors,
+          AccessChain chain,
+          String[] segments,
           HashSet<Variable> variables) {
+    Object nextObj;
     try {
-      // Get the class of the given object.
-      Class objClass = curObj.getClass();
-      // Get the getter method.
-      Method getter = objClass.getMethod("yGet_" + fieldName);
-      // Get the field.
-      Object nextObj = getter.invoke(curObj);
-
-      // Zoom in
-      int nextIndex = curIndex + 1;
-      String nextPath = curPath + "." + fieldName;
-      zoomInAndGetVars(nextObj, accessors, nextIndex, nextPath, variables);
+      // Get the field through the getter cached for the object's class.
+      nextObj = step.get(curObj);
     } catch (Throwable t) {
-      throw new RuntimeException("Fail to zoom in to field " + fieldName +
+      throw new RuntimeException("Fail to zoom in to field " + step.accessor +
               " from " + curPath, t);
     }
+
+    // Zoom in
+    int nextIndex = curIndex + 1;
+    String nextPath = curPath + "." + step.accessor;
+    zoomInAndGetVars(nextObj, chain, nextIndex, nextPath, segments, variables);
   }
 
   /**
@@ -333,22 +350,24 @@ public class Variable {
    * TODO: Can we simplify this method?
    * @param curPath The access path of the current object.
    * @param curObj The given array object to zoom in.
-   * @param idxStr The index to zoom in.
+   * @param step The accessor with the index to zoom in.
    * @param curIndex The accessor index when getting the current object.
-   * @param accessors The set of accessors.
+   * @param chain The access path.
+   * @param segments The segments of the access path.
    * @param variables The collection of interesting variables.
    */
   private static void zoomInArrayElmnt(
           String curPath,
           Object curObj,
-          String idxStr,
+          AccessChain.Step step,
           int curIndex,
-          ArrayList<String> accessors,
+          AccessChain chain,
+          String[] segments,
           HashSet<Variable> variables) {
     int nextIndex = curIndex + 1;
     int elementIndex = 0;
-    int target = Integer.parseInt(idxStr);
-    String nextPath = curPath + ".[" + idxStr + "]";
+    int target = step.num;
+    String nextPath = curPath + "." + step.accessor;
     Object nextObj = null;
 
     String typeString = curObj.getClass().getComponentType().toString();
@@ -443,23 +462,25 @@ public class Variable {
           }
         }
     }
-    zoomInAndGetVars(nextObj, accessors, nextIndex, nextPath, variables);
+    zoomInAndGetVars(nextObj, chain, nextIndex, nextPath, segments, variables);
   }
 
   /**
    * Zoom in the given array object.
    * TODO: Can we simplify this method?
    * @param curObj The given array object to collect or zoom in.
-   * @param acs The set of accessors.
+   * @param acs The access path.
    * @param curIndex The index of the given object in the names.
    * @param cPath The prefix of the access ID.
+   * @param segs The segments of the access path.
    * @param vars The collection of interesting variables.
    */
   private static void zoomInArray(
           Object curObj,
-          ArrayList<String> acs,
+          AccessChain acs,
           int curIndex,
           String cPath,
+          String[] segs,
           HashSet<Variable> vars) {
     int nIdx = curIndex + 1;
     int eIdx = 0;
@@ -468,69 +489,89 @@ public class Variable {
     switch (typeString) {
       case "boolean":
         for (boolean next : (boolean[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "byte":
         for (byte next : (byte[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "short":
         for (short next : (short[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "int":
         for (int next : (int[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "long":
         for (long next : (long[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "char":
         for (char next : (char[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "float":
         for (float next : (float[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       case "double":
         for (double next : (double[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
         break;
       default:
         for (Object next : (Object[]) curObj) {
-          zoomInAndGetVars(next, acs, nIdx, cPath + ".[" + eIdx++ + "]", vars);
+          zoomInAndGetVars(
+                  next, acs, nIdx, cPath + ".[" + eIdx++ + "]", segs, vars);
         }
     }
   }
 
   /**
    * Generate a hash code for the given object. The hash code of a given object
-   * is the XOR of the hash codes of its fields (recursively).
+   * is the XOR of the hash codes of its fields (recursively). The hash codes
+   * of the map keys are cached by KeyHashIndex.
    * @param obj The object whose hash code is of interest.
    * @return The hash code of the object.
    */
   static int getHash(Object obj) {
-    return getHash(new HashSet<Class>(), obj, 0);
+    return KeyHashIndex.hashOf(obj);
+  }
+
+  /**
+   * Generate a hash code for the given object, bypassing the cache.
+   * @param obj The object whose hash code is of interest.
+   * @return The hash code of the object.
+   */
+  static int computeHash(Object obj) {
+    return getHash(new Class<?>[Config.zoomDepth], obj, 0);
   }
 
   /**
    * Generate a hash code for the given object. The hash code of a given object
    * is the XOR of the hash codes of its fields (recursively).
+   * @param pre The classes we have zoomed in, one per depth.
    * @param obj The object whose hash code is of interest.
    * @param prevDepth The depth we have zoomed.
    * @return The hash code of the object.
    */
-  private static int getHash(HashSet<Class> pre, Object obj, int prevDepth) {
+  private static int getHash(Class<?>[] pre, Object obj, int prevDepth) {
     // For the following scenarios, we will quickly return a hash code of 0:
     // 1. The given object is null.
     // 2. We have zoomed too deep.
@@ -538,53 +579,42 @@ public class Variable {
     // 4. We failed to get a hash code for the given object's class.
     if (obj == null
             || prevDepth == Config.zoomDepth
-            || pre.contains(obj.getClass())
+            || hasZoomedIn(pre, prevDepth, obj.getClass())
             || badClassHashCodes.containsKey(obj.getClass())) {
       return 0;
     }
 
     try {
-      Class objClass = obj.getClass();
-
-      // An Atomic* object's hash code is the same as the referred object.
-      if (isAtomic(obj)) {
-        Object referredObj = objClass.getMethod("get").invoke(obj);
-        return getHash(pre, referredObj, prevDepth);
+      ClassHasher hasher = classHashers.get(obj.getClass());
+      switch (hasher.kind) {
+        case ATOMIC:
+          // An Atomic* object's hash code is the same as the referred object.
+          Object referredObj = (Object) hasher.referredGetter.invokeExact(obj);
+          return getHash(pre, referredObj, prevDepth);
+        case ENUM:
+          // An Enum object's hash code will be the hash code of its name.
+          return obj.toString().hashCode();
+        case ARRAY:
+          // An array object's hash code will be calculated similarly as in
+          // List.hashCode().
+          return getHashOfArray(pre, obj, prevDepth);
+        case COLLECTION:
+          // A Collection object's hash code will be the same as the
+          // underlying array's.
+          // TODO: Should we handle Sets differently since they don't care
+          //       about the order of the elements?
+          return getHashOfArray(pre, ((Collection) obj).toArray(), prevDepth);
+        case MAP:
+          // A Map object's hash code will be the sum of its entries'.
+          return getHashOfMap(pre, obj, prevDepth);
+        case JVM:
+          // The hash code of an object instantiating other JVM class will be
+          // the hash code of its string representation.
+          return obj.toString().hashCode();
+        default:
+          // If the given object instantiates a non-JVM class, try to zoom in.
+          return getHashOfAppClass(pre, hasher, obj, prevDepth);
       }
-
-      // An Enum object's hash code will be the hash code of its name.
-      if (objClass.isEnum()) {
-        return obj.toString().hashCode();
-      }
-
-      // An array object's hash code will be calculated similarly as in
-      // List.hashCode().
-      if (objClass.isArray()) {
-        return getHashOfArray(pre, obj, prevDepth);
-      }
-
-      // A Collection object's hash code will be the same as the underlying
-      // array's.
-      // TODO: Should we handle Sets differently since they don't care about
-      //       the order of the elements?
-      if (obj instanceof Collection) {
-        return getHashOfArray(pre, ((Collection) obj).toArray(), prevDepth);
-      }
-
-      // A Map object's hash code will be the sum of its entries'.
-      if (obj instanceof Map) {
-        return getHashOfMap(pre, obj, prevDepth);
-      }
-
-      // The hash code of an object instantiating other JVM class will be the
-      // hash code of its string representation.
-      String packageName = objClass.getPackage().getName();
-      if (packageName.startsWith("java.") || packageName.startsWith("sun.")) {
-        return obj.toString().hashCode();
-      }
-
-      // If the given object instantiates a non-JVM class, try to zoom in.
-      return getHashOfAppClass(pre, obj, prevDepth);
     } catch (Throwable t) {
       logger.info("Fail to get hash code for class " + obj.getClass(), t);
       badClassHashCodes.put(obj.getClass(), true);
@@ -592,6 +622,15 @@ public class Variable {
     return 0;
   }
 
+  private static boolean hasZoomedIn(Class<?>[] pre, int depth, Class cls) {
+    for (int i = 0; i < depth; ++i) {
+      if (pre[i] == cls) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Get the hash code of an array. The hash code of an array is calculated
    * similarly to what List.hashCode() does.
@@ -601,7 +640,7 @@ public class Variable {
    * @return The hash code for the given array.
    */
   private static int getHashOfArray(
-          HashSet<Class> pre, Object arrObj, int prevDepth) {
+          Class<?>[] pre, Object arrObj, int prevDepth) {
     Class objCls = arrObj.getClass();
     if (!objCls.isArray()) {
       logger.error("The given object (" + arrObj + ") of class " + objCls +
@@ -609,24 +648,31 @@ public class Variable {
       Runtime.getRuntime().halt(1);
     }
 
-    switch (objCls.getComponentType().toString()) {
-      case "boolean": return Arrays.hashCode((boolean[]) arrObj);
-      case "byte":    return Arrays.hashCode((byte[]) arrObj);
-      case "short":   return Arrays.hashCode((short[]) arrObj);
-      case "int":     return Arrays.hashCode((int[]) arrObj);
-      case "long":    return Arrays.hashCode((long[]) arrObj);
-      case "char":    return Arrays.hashCode((char[]) arrObj);
-      case "float":   return Arrays.hashCode((float[]) arrObj);
-      case "double":  return Arrays.hashCode((double[]) arrObj);
-      default: // Object[]
-        int cnt = 0, hash = 1;
-        for (Object e : (Object[]) arrObj) {
-          if (cnt++ >= Config.fanoutFactor) {
-            break;
-          }
-          hash = 31 * hash + getHash(pre, e, prevDepth);
+    if (arrObj instanceof Object[]) {
+      int cnt = 0, hash = 1;
+      for (Object e : (Object[]) arrObj) {
+        if (cnt++ >= Config.fanoutFactor) {
+          break;
         }
-        return hash;
+        hash = 31 * hash + getHash(pre, e, prevDepth);
+      }
+      return hash;
+    } else if (arrObj instanceof boolean[]) {
+      return Arrays.hashCode((boolean[]) arrObj);
+    } else if (arrObj instanceof byte[]) {
+      return Arrays.hashCode((byte[]) arrObj);
+    } else if (arrObj instanceof short[]) {
+      return Arrays.hashCode((short[]) arrObj);
+    } else if (arrObj instanceof int[]) {
+      return Arrays.hashCode((int[]) arrObj);
+    } else if (arrObj instanceof long[]) {
+      return Arrays.hashCode((long[]) arrObj);
+    } else if (arrObj instanceof char[]) {
+      return Arrays.hashCode((char[]) arrObj);
+    } else if (arrObj instanceof float[]) {
+      return Arrays.hashCode((float[]) arrObj);
+    } else {
+      return Arrays.hashCode((double[]) arrObj);
     }
   }
 
@@ -643,7 +689,7 @@ public class Variable {
    * @return The hash code of the map object.
    */
   private static int getHashOfMap(
-          HashSet<Class> pre, Object mapObj, int prevDepth) {
+          Class<?>[] pre, Object mapObj, int prevDepth) {
     if (!(mapObj instanceof Map)) {
       logger.error("The given object (" + mapObj + ") of class " +
               mapObj.getClass() + " is not a map.",
@@ -668,39 +714,195 @@ public class Variable {
    * Get the hash code of an object instantiating a non-JVM class. The hash code
    * of such an object will be the XOR of its instance fields.
    * @param pre The classes we have zoomed in.
+   * @param hasher The hasher of the object's class.
    * @param obj The object to get the hash code.
    * @param prevDepth The depth we have zoomed in.
    * @return The hash code of the object.
    */
+  /**
+   * Check if the hash of an object of the class is decided by the values of
+   * its own fields alone, i.e., it is an application class whose hashed
+   * fields all hold values (see isValueClass()).
+   * @param cls The class of the object.
+   * @param finalOnly Whether these fields must all be final too, so that the
+   *                  hash never changes.
+   * @return Whether the hash only depends on the values of the fields.
+   */
+  static boolean hasValueFieldsOnly(Class<?> cls, boolean finalOnly) {
+    ClassHasher hasher;
+    try {
+      hasher = classHashers.get(cls);
+    } catch (Throwable t) {
+      return false;
+    }
+    return hasher.kind == HashKind.APP_CLASS && hasher.valueFieldsOnly
+            && (!finalOnly || hasher.finalFieldsOnly);
+  }
+
+  /**
+   * Check if the objects of the class are values, i.e., strings, boxed
+   * primitives, or enums, whose hashes depend on nothing else and never
+   * change.
+   * @param cls The class to check.
+   * @return Whether the objects of the class are values.
+   */
+  static boolean isValueClass(Class<?> cls) {
+    return cls.isPrimitive() || cls == String.class
+            || cls == Boolean.class || cls == Character.class
+            || cls == Byte.class || cls == Short.class || cls == Integer.class
+            || cls == Long.class || cls == Float.class || cls == Double.class
+            || Enum.class.isAssignableFrom(cls);
+  }
+
+  /**
+   * Get the values of the fields that the hash of the object is computed
+   * from, as of now.
+   * @param obj An object of an application class.
+   * @return The values of the fields, or null if some cannot be read.
+   */
+  static Object[] getFieldValues(Object obj) {
+    ClassHasher hasher = classHashers.get(obj.getClass());
+    Object[] values = new Object[hasher.fields.length];
+    try {
+      for (int i = 0; i < values.length; ++i) {
+        MethodHandle getter = hasher.fieldGetters[i];
+        values[i] = getter != null
+                ? (Object) getter.invokeExact(obj)
+                : hasher.fieldMethods[i].invoke(obj);
+      }
+    } catch (Throwable t) {
+      return null;
+    }
+    return values;
+  }
+
   private static int getHashOfAppClass(
-          HashSet<Class> pre, Object obj, int prevDepth) {
+          Class<?>[] pre, ClassHasher hasher, Object obj, int prevDepth) {
     int hash = 0;
-    for (Field f : getAllFields(obj.getClass())) {
-      if (Modifier.isStatic(f.getModifiers())) {
-        continue;
+    pre[prevDepth] = obj.getClass();
+    for (int i = 0; i < hasher.fields.length; ++i) {
+      try {
+        // Get a reference of the field, and get its hash code.
+        MethodHandle getter = hasher.fieldGetters[i];
+        Object fieldAsRef = getter != null
+                ? (Object) getter.invokeExact(obj)
+                : hasher.fieldMethods[i].invoke(obj);
+        hash ^= getHash(pre, fieldAsRef, prevDepth + 1);
+      } catch (Throwable t) {
+        logger.info("Error when hashing field " + hasher.fields[i], t);
       }
+    }
+    pre[prevDepth] = null;
+    return hash;
+  }
 
-      try {
+  private enum HashKind { ATOMIC, ENUM, ARRAY, COLLECTION, MAP, JVM, APP_CLASS }
+
+  /**
+   * How to hash the objects of a class, resolved once per class.
+   */
+  private static class ClassHasher {
+    final HashKind kind;
+    // The get() of an Atomic* class.
+    MethodHandle referredGetter = null;
+    // The instance fields of an application class, with their getters. The
+    // handle of a getter is null if Variable cannot access it directly, in
+    // which case it is invoked reflectively as before.
+    Field[] fields = new Field[0];
+    Method[] fieldMethods = new Method[0];
+    MethodHandle[] fieldGetters = new MethodHandle[0];
+    // Whether the fields of an application class all hold values, and
+    // whether they are all final.
+    boolean valueFieldsOnly = false;
+    boolean finalFieldsOnly = false;
+
+    ClassHasher(Class<?> cls) throws ReflectiveOperationException {
+      if (isAtomic(cls)) {
+        kind = HashKind.ATOMIC;
+        referredGetter = getterOf(cls.getMethod("get"));
+      } else if (cls.isEnum()) {
+        kind = HashKind.ENUM;
+      } else if (cls.isArray()) {
+        kind = HashKind.ARRAY;
+      } else if (Collection.class.isAssignableFrom(cls)) {
+        kind = HashKind.COLLECTION;
+      } else if (Map.class.isAssignableFrom(cls)) {
+        kind = HashKind.MAP;
+      } else {
+        String packageName = cls.getPackage().getName();
+        if (packageName.startsWith("java.") || packageName.startsWith("sun.")) {
+          kind = HashKind.JVM;
+        } else {
+          kind = HashKind.APP_CLASS;
+          resolveFields(cls);
+        }
+      }
+    }
+
+    /**
+     * Resolve the instance fields of the class and of its instrumented super
+     * classes, and their getters.
+     */
+    private void resolveFields(Class<?> cls) {
+      ArrayList<Field> fieldList = new ArrayList<>();
+      ArrayList<Method> methodList = new ArrayList<>();
+      ArrayList<MethodHandle> getterList = new ArrayList<>();
+      valueFieldsOnly = true;
+      finalFieldsOnly = true;
+      for (Field f : getAllFields(cls)) {
         String fieldName = f.getName();
         // TODO: Handle special characters. What do they mean?
-        if (fieldName.contains("$") || fieldName.contains("#")) {
+        if (Modifier.isStatic(f.getModifiers())
+                || fieldName.contains("$") || fieldName.contains("#")) {
           continue;
         }
-
-        // Get a reference of the field, and get its hash code.
-        Class objCls = obj.getClass();
-        Method fieldGetter = objCls.getMethod("yGet_" + fieldName);
-        Object fieldAsRef = fieldGetter.invoke(obj);
-        pre.add(objCls);
-        hash ^= getHash(pre, fieldAsRef, prevDepth + 1);
-        pre.remove(objCls);
-      } catch (Throwable t) {
-        logger.info("Error when hashing field " + f, t);
+        Method method;
+        try {
+          method = cls.getMethod("yGet_" + fieldName);
+        } catch (Throwable t) {
+          logger.info("Error when hashing field " + f, t);
+          continue;
+        }
+        MethodHandle getter;
+        try {
+          getter = getterOf(method);
+        } catch (IllegalAccessException iae) {
+          getter = null;
+        }
+        fieldList.add(f);
+        methodList.add(method);
+        getterList.add(getter);
+        valueFieldsOnly &= isValueClass(f.getType());
+        finalFieldsOnly &= Modifier.isFinal(f.getModifiers());
       }
+      fields = fieldList.toArray(new Field[0]);
+      fieldMethods = methodList.toArray(new Method[0]);
+      fieldGetters = getterList.toArray(new MethodHandle[0]);
+    }
+
+    /**
+     * Get the handle of the getter, if Variable can access it.
+     */
+    private static MethodHandle getterOf(Method getter)
+            throws IllegalAccessException {
+      return MethodHandles.lookup().unreflect(getter)
+              .asType(MethodType.methodType(Object.class, Object.class));
     }
-    return hash;
   }
 
+  // The hasher of each class.
+  private static final ClassValue<ClassHasher> classHashers =
+          new ClassValue<ClassHasher>() {
+            @Override
+            protected ClassHasher computeValue(Class<?> cls) {
+              try {
+                return new ClassHasher(cls);
+              } catch (ReflectiveOperationException roe) {
+                throw new IllegalStateException(roe);
+              }
+            }
+          };
+
   /**
    * Get all the fields of the given class, including the fields in itself and
    * its super classes (both direct and indirect).
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+
+/**
+ * Decide which variables to collect by their access paths, so that the
+ * variables we never mine are neither reflected on, nor stringified, nor
+ * written to the profiling logs. The filters are loaded from
+ * Config.VARIABLE_FILTERS_FILENAME, one rule per line:
+ *
+ *   exclude **.get(*).value
+ *   include **.get(-1839152142).value
+ *
+ * A pattern is matched against the segments of an access path, i.e., the
+ * parts between the dots. A "*" in a segment matches any characters within
+ * the segment, and a "**" segment matches any number of segments. A pattern
+ * matches a variable if it matches its access path or a prefix of it. The
+ * last matching rule decides; a variable that matches no rule is kept. The
+ * patterns are matched all at once with an AccessPathMatcher.
+ *
+ * The log merger applies the same filters (see cofi.variable.VariableFilter);
+ * keep the two in sync.
+ */
+class VariableFilter {
+  // The patterns, each with its index in the rules.
+  private static AccessPathMatcher<Integer> patterns =
+          new AccessPathMatcher<>();
+  // Whether each rule is an include rule.
+  private static ArrayList<Boolean> includes = new ArrayList<>();
+
+  private static Config.Logger logger = new Config.Logger("COFI_VARFILTER");
+
+  /**
+   * Load the filters. If the filter file does not exist, every variable is
+   * collected.
+   */
+  static void load() {
+    File filterFile = new File(Config.VARIABLE_FILTERS_FILENAME);
+    if (!filterFile.exists()) {
+      return;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(filterFile))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] parts = line.split("\\s+", 2);
+        if (parts.length != 2
+                || !(parts[0].equals("include") || parts[0].equals("exclude"))) {
+          throw new IllegalArgumentException("Invalid variable filter: " + line);
+        }
+        patterns.add(parts[1], includes.size());
+        includes.add(parts[0].equals("include"));
+      }
+      logger.info("Loaded " + includes.size() + " variable filters.");
+    } catch (Throwable t) {
+      logger.error("Failed to load variable filters from "
+              + Config.VARIABLE_FILTERS_FILENAME, t);
+      Runtime.getRuntime().halt(1);
+    }
+  }
+
+  /**
+   * Check whether any variable can be collected by zooming in from the
+   * current object. The collected variable is either the current path
+   * followed by the remaining accessors, or a prefix of it if a null is met
+   * on the way. A "get(*)" or "[*]" accessor stands for any element.
+   *
+   * The segments of the path are kept in a buffer along the walk, so that the
+   * path is not split again at every step. Only the segment of the current
+   * accessor is filled in here; the ones after it are scratch space.
+   * @param curPath The access path of the current object.
+   * @param segments The segments of the path to the previous object, made by
+   *                 AccessChain.newPathSegments().
+   * @param chain The access path of the interesting variable.
+   * @param curIndex The index of the accessor for the current object.
+   * @return False if none of the variables can be kept.
+   */
+  static boolean mayAccept(String curPath, String[] segments,
+                           AccessChain chain, int curIndex) {
+    if (includes.isEmpty()) {
+      return true;
+    }
+    ArrayList<String> accessors = chain.getAccessors();
+    int length = segments.length - accessors.size() + curIndex + 1;
+    AccessChain.Kind kind = chain.getStep(curIndex).kind;
+    segments[length - 1] = kind == AccessChain.Kind.ALL_ELEMENTS
+            || kind == AccessChain.Kind.ALL_ARRAY_ELEMENTS
+            ? curPath.substring(curPath.lastIndexOf('.') + 1)
+            : accessors.get(curIndex);
+    for (int i = curIndex + 1; ; ++i) {
+      if (mayAccept(segments, length)) {
+        return true;
+      }
+      if (i >= accessors.size()) {
+        return false;
+      }
+      segments[length++] = accessors.get(i);
+    }
+  }
+
+  /**
+   * Check whether the variable of the first length segments may be kept. A
+   * segment with "*" in it stands for any element. The variable may be kept
+   * if the last rule matching it for any element includes it, or if an
+   * include rule after that one matches it for some element.
+   */
+  private static boolean mayAccept(String[] segments, int length) {
+    int last = -1;
+    for (int idx : patterns.matchPrefixes(segments, length, true)) {
+      last = Math.max(last, idx);
+    }
+    if (last >= 0 && includes.get(last)) {
+      return true;
+    }
+    for (int idx : patterns.matchPrefixes(segments, length, false)) {
+      if (idx > last && includes.get(idx)) {
+        return true;
+      }
+    }
+    return last < 0;
+  }
+}
@@ -23,6 +23,8 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * CoFI's fault injection engine.
@@ -34,6 +36,30 @@ public class Engine {
   private static boolean replay = false;
   private static TestRunner testRunner = null;
   private static int iteration = 0;
+  // The number of test runs killed by the watchdog.
+  private static int timeoutRunCnt = 0;
+  // The messages held back to steer the system into the state to keep.
+  private static ArrayList<HeldMessage> heldMessages = new ArrayList<>();
+
+  /**
+   * A send event whose response is postponed. The client that reports it is
+   * blocked until the response.
+   */
+  private static class HeldMessage {
+    final Socket socket;
+    final DataOutputStream out;
+    final String content;
+    final SendType type;
+    final long heldSince = System.currentTimeMillis();
+
+    HeldMessage(Socket socket, DataOutputStream out, String content,
+                SendType type) {
+      this.socket = socket;
+      this.out = out;
+      this.content = content;
+      this.type = type;
+    }
+  }
 
   /**
    * Start the fault injection engine, and run the test case based on the
@@ -75,14 +101,17 @@ public class Engine {
         testRunner = new TestRunner(testCase);
         new Thread(testRunner).start();
         while (testRunner.isRunning()) {
-          try (Socket s = ss.accept();
-               DataOutputStream out = new DataOutputStream(s.getOutputStream());
-               DataInputStream in = new DataInputStream(s.getInputStream())) {
+          Socket s = null;
+          boolean held = false;
+          try {
+            s = ss.accept();
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
             // TODO: The event type is no longer used. Remove it.
             int eventType = in.readInt();
             switch (eventType) {
               case 2:
-                handleEvent(in, out);
+                held = !handleEvent(s, in, out);
                 break;
               default:
                 Logger.fatal("Unsupported event type: " + eventType);
@@ -93,15 +122,41 @@ public class Engine {
           } catch (IOException ioe) {
             Logger.info("Got IOException when handling requests from a CoFI " +
                     "client. This is expected during cluster shutdown.", ioe);
+          } finally {
+            // A held message will be responded to later.
+            if (s != null && !held) {
+              closeQuietly(s);
+            }
           }
+          releaseHeldMessages(false);
+        }
+        releaseHeldMessages(true);
+        if (testRunner.getOutcome() == TestRunner.Outcome.TIMED_OUT) {
+          timeoutRunCnt++;
         }
 
-        // Step 4: Record the new inconsistent states for future test runs.
+        // Step 4: Record the new inconsistent states, as well as what we have
+        // observed in this run, for future test runs.
         if (!replay) {
           EventManager.recordNewInconsistentStates();
+          EventManager.recordObservations();
         }
       }
 
+      if (timeoutRunCnt > 0) {
+        Logger.warn(timeoutRunCnt + " test runs have timed out.");
+      }
+      EventManager.reportRunsExercisingPlans();
+      if (Config.SYMMETRY_REDUCTION) {
+        Logger.info("Symmetry reduction skipped " +
+                FailurePlan.getSymmetricPlanCount() + " failure plans, " +
+                "saving at least as many test runs.");
+      }
+      if (Config.PRUNE_FUTILE_PLANS) {
+        int n = EventManager.getFutilePlanCount();
+        Logger.info("Skipped " + n + " futile failure plans, avoiding " + n +
+                " to " + n * Config.MAX_RETRIES_PER_SCENARIO + " test runs.");
+      }
       recordTotalIterations(invariant, iteration);
     } catch (Throwable t) {
       Logger.fatal("Unhandled exception during fault injection.", t);
@@ -174,16 +229,40 @@ public class Engine {
 
   /**
    * Read the client-reported event from the specified input stream and handle
-   * it accordingly.
+   * it accordingly. If the event is a message to hold back, the response is
+   * postponed until releaseHeldMessages() lets it go.
+   * @param s The socket connected to the client.
    * @param in The input stream to read in the event.
    * @param out The output stream to respond to the client.
+   * @return Whether the client has been responded to.
    * @throws IOException If failed to read the event or failed to send back the
    *                     response.
    */
-  private static void handleEvent(DataInputStream in, DataOutputStream out)
+  private static boolean handleEvent(
+          Socket s, DataInputStream in, DataOutputStream out)
           throws IOException {
     String content = in.readUTF();
+    testRunner.reportActivity();
     boolean shouldProceed = EventManager.parseAndHandleEvent(content);
+    SendType typeToHold = EventManager.takeTypeToHold();
+    if (typeToHold != null) {
+      heldMessages.add(new HeldMessage(s, out, content, typeToHold));
+      return false;
+    }
+    respond(content, shouldProceed, out);
+    return true;
+  }
+
+  /**
+   * Let the client know whether it should proceed with the given event.
+   * @param content The string representation of the event.
+   * @param shouldProceed Whether the client should proceed.
+   * @param out The output stream to respond to the client.
+   * @throws IOException If failed to send back the response.
+   */
+  private static void respond(
+          String content, boolean shouldProceed, DataOutputStream out)
+          throws IOException {
     if (!shouldProceed) {
       String failMsgStr = "Failing message: " + content;
       Logger.info(failMsgStr);
@@ -192,6 +271,40 @@ public class Engine {
     out.writeBoolean(shouldProceed);
   }
 
+  /**
+   * Respond to the held messages that are ready to go, i.e., the ones that the
+   * EventManager no longer wants to hold.
+   * @param force Whether to release all the held messages regardless.
+   */
+  private static void releaseHeldMessages(boolean force) {
+    Iterator<HeldMessage> it = heldMessages.iterator();
+    while (it.hasNext()) {
+      HeldMessage msg = it.next();
+      if (!force && EventManager.shouldKeepHolding(msg.heldSince)) {
+        continue;
+      }
+      it.remove();
+      try {
+        boolean shouldProceed =
+                EventManager.decideHeldSend(msg.type, msg.content);
+        respond(msg.content, shouldProceed, msg.out);
+      } catch (IOException ioe) {
+        Logger.info("Got IOException when releasing a held message. This is " +
+                "expected during cluster shutdown.", ioe);
+      } finally {
+        closeQuietly(msg.socket);
+      }
+    }
+  }
+
+  private static void closeQuietly(Socket s) {
+    try {
+      s.close();
+    } catch (IOException ioe) {
+      // ignore
+    }
+  }
+
   public static boolean isReplaying() {
     return replay;
   }
@@ -44,6 +44,12 @@ public class EventManager {
   private static ArrayList<HashMap<String, String>> states = new ArrayList<>();
   // The send types failed in the current run.
   public static HashSet<SendType> failedSendTypes = new HashSet<>();
+  // The type of the latest send event, if the engine should hold it back.
+  private static SendType typeToHold = null;
+  // The number of messages being held back.
+  private static int heldMsgCnt = 0;
+  // Has any message been held back in the current run?
+  private static boolean steeredThisRun = false;
 
   /**************************
    * Variables across-runs. *
@@ -60,6 +66,16 @@ public class EventManager {
   private static HashSet<SendType> allSendTypes = new HashSet<>();
   // The current failure plan.
   private static FailurePlan curFailurePlan;
+  // All the send event types that have been failed in the previous runs.
+  private static HashSet<SendType> allFailedSendTypes = new HashSet<>();
+  // The number of failure plans skipped because they cannot fail anything.
+  private static int futilePlanCnt = 0;
+  // The number of runs with a failure plan, the number of such runs that have
+  // failed some message, and the number of such runs that have held back some
+  // message.
+  private static int plannedRunCnt = 0;
+  private static int exercisedRunCnt = 0;
+  private static int steeredRunCnt = 0;
 
   // The status of the simulated network partition
   enum PartitionStatus { PENDING, STARTED, ENDED }
@@ -74,6 +90,9 @@ public class EventManager {
 
   static void init(Invariant inv) {
     invariant = inv;
+    if (Config.SYMMETRY_REDUCTION) {
+      FailurePlan.initSymmetries(inv);
+    }
   }
 
   public static void refresh() {
@@ -81,6 +100,9 @@ public class EventManager {
     curState = new HashMap<>();
     states = new ArrayList<>();
     failedSendTypes.clear();
+    typeToHold = null;
+    heldMsgCnt = 0;
+    steeredThisRun = false;
     partitionStatus = PartitionStatus.PENDING;
   }
 
@@ -109,7 +131,7 @@ public class EventManager {
     // Before the 2nd run, we need to initialize the current failure plan. If we
     // cannot find a failure plan to start with, return false.
     if (curFailurePlan == null) {
-      curFailurePlan = FailurePlan.nextFailurePlan();
+      curFailurePlan = nextUsefulFailurePlan();
       if (curFailurePlan == null) {
         Logger.debug("Don't have any failure plan.");
         return false;
@@ -138,7 +160,7 @@ public class EventManager {
     }
 
     // Case 3: Construct a new failure scenario with the next failure plan.
-    curFailurePlan = FailurePlan.nextFailurePlan();
+    curFailurePlan = nextUsefulFailurePlan();
     if (curFailurePlan == null) {
       return false;
     } else {
@@ -150,6 +172,71 @@ public class EventManager {
     }
   }
 
+  /**
+   * Get the next failure plan that may fail some message. With
+   * Config.PRUNE_FUTILE_PLANS, the failure plans that are deemed futile based
+   * on the previous runs are skipped.
+   * @return The next useful failure plan, or null if there is none.
+   */
+  private static FailurePlan nextUsefulFailurePlan() {
+    FailurePlan plan;
+    while ((plan = FailurePlan.nextFailurePlan()) != null) {
+      if (!Config.PRUNE_FUTILE_PLANS) {
+        return plan;
+      }
+      String reason = getFutilityReason(plan);
+      if (reason == null) {
+        return plan;
+      }
+      futilePlanCnt++;
+      Logger.debug("Skipping futile failure plan because " + reason + ": " +
+              plan);
+    }
+    return null;
+  }
+
+  /**
+   * Predict whether the given failure plan can fail any message, based on what
+   * we have observed in the previous runs. A failure plan is futile if:
+   * 1. Its failure scenario is empty, so there is no message to fail.
+   * 2. For the "Practical" policy, no message of the failed node has been sent
+   *    at its state to keep. The first such message will not be in the failure
+   *    scenario, and will end the partition.
+   * 3. All the messages of the failed node that are sent at its state to keep
+   *    have been failed before, i.e., the scenario is covered already.
+   * @param plan The failure plan to check.
+   * @return Why the failure plan is futile, or null if it is not.
+   */
+  private static String getFutilityReason(FailurePlan plan) {
+    HashMap<String, String> stateToKeep = plan.getStateToKeep();
+    HashSet<SendType> scenario = plan.makeFailureScenario(allSendTypes);
+    if (scenario.isEmpty()) {
+      return "there is no message to fail";
+    }
+
+    // Get the messages that leave the state to keep.
+    HashSet<SendType> leavingTypes = new HashSet<>();
+    for (SendType t : scenario) {
+      if (t.startState.equals(stateToKeep)) {
+        leavingTypes.add(t);
+      }
+    }
+    if (leavingTypes.isEmpty()) {
+      return policy.equals("Practical")
+              ? "no message of the failed node leaves its state"
+              : null;
+    }
+    if (allFailedSendTypes.containsAll(leavingTypes)) {
+      return "its messages have all been failed at its state";
+    }
+
+    return null;
+  }
+
+  static int getFutilePlanCount() {
+    return futilePlanCnt;
+  }
+
   /**
    * Load failure plan from a given file.
    * The failure plan consists of several messages to fail.
@@ -210,18 +297,28 @@ public class EventManager {
     }
 
     // If we are not going to proceed with the event, let the client know.
-    // Otherwise, record the new event and the latest global state.
+    // A held message is recorded when the engine releases it. Otherwise,
+    // record the new event and the latest global state.
     if (!shouldProceed) {
       return false;
-    } else {
-      events.add(event);
-      states.add(new HashMap<>(curState));
+    } else if (typeToHold == null) {
+      recordEvent(event);
     }
 
     // Let the client proceed.
     return true;
   }
 
+  /**
+   * Record the given event that the client proceeds with, along with the
+   * latest global state.
+   * @param event The event to record.
+   */
+  private static void recordEvent(Event event) {
+    events.add(event);
+    states.add(new HashMap<>(curState));
+  }
+
   /**
    * Check if the given event is interesting.
    * A send event is interesting if its sender or receiver is related to the
@@ -271,7 +368,27 @@ public class EventManager {
         return partitionStatus != PartitionStatus.STARTED;
       }
       return true;
-    } else if (shouldFailSendType(curType)) {
+    } else if (shouldHoldSendType(curType)) {
+      // Let the engine hold back the message. It will decide whether to fail
+      // the message when releasing it.
+      Logger.debug("Holding send: " + curType);
+      typeToHold = curType;
+      heldMsgCnt++;
+      steeredThisRun = true;
+      return true;
+    } else {
+      return decideSendType(curType);
+    }
+  }
+
+  /**
+   * Decide whether a message of the given send type can be sent, and record
+   * the decision.
+   * @param curType The type of the send event.
+   * @return Whether the message can be sent.
+   */
+  private static boolean decideSendType(SendType curType) {
+    if (shouldFailSendType(curType)) {
       // Check if we should fail this type of send event.
       failedSendTypes.add(curType);
       hasFailedMsgs = true;
@@ -282,6 +399,83 @@ public class EventManager {
     }
   }
 
+  /**
+   * Check if we should hold back the pending send event to steer the system
+   * into the state to keep. When steering is enabled and the partition hasn't
+   * started, we hold back the messages to a node that has reached its part of
+   * the state to keep, so that the node stays there until the other nodes
+   * catch up.
+   * @param pendingType The type of the pending send event.
+   * @return Whether the engine should hold back the send event.
+   */
+  private static boolean shouldHoldSendType(SendType pendingType) {
+    if (!Config.STATE_STEERING
+            || curFailurePlan == null
+            || partitionStatus != PartitionStatus.PENDING
+            || heldMsgCnt >= Config.STEERING_MAX_HELD_MSGS) {
+      return false;
+    }
+
+    // Check whether the receiver has exactly its part of the state to keep.
+    String varPrefix = pendingType.receiver + "-";
+    HashMap<String, String> stateToKeep = curFailurePlan.getStateToKeep();
+    boolean hasPart = false;
+    for (String varName : stateToKeep.keySet()) {
+      if (varName.startsWith(varPrefix)) {
+        hasPart = true;
+        if (!stateToKeep.get(varName).equals(curState.get(varName))) {
+          return false;
+        }
+      }
+    }
+    for (String varName : curState.keySet()) {
+      if (varName.startsWith(varPrefix) && !stateToKeep.containsKey(varName)) {
+        return false;
+      }
+    }
+    return hasPart;
+  }
+
+  /**
+   * Get and clear the type of the latest send event if the engine should hold
+   * it back.
+   * @return The type of the send event to hold back, or null.
+   */
+  static SendType takeTypeToHold() {
+    SendType type = typeToHold;
+    typeToHold = null;
+    return type;
+  }
+
+  /**
+   * Check if a message held back since the given time should stay held. We
+   * stop holding messages once the partition starts, or after the message has
+   * been held for Config.STEERING_MAX_HOLD_MS.
+   * @param heldSince When the message was held back, in milliseconds.
+   * @return Whether to keep holding the message.
+   */
+  static boolean shouldKeepHolding(long heldSince) {
+    return partitionStatus == PartitionStatus.PENDING
+            && System.currentTimeMillis() - heldSince < Config.STEERING_MAX_HOLD_MS;
+  }
+
+  /**
+   * Decide whether a held message of the given send type can be sent, now that
+   * the engine releases it. Only then is the send event recorded, if the
+   * message goes through.
+   * @param heldType The type of the held send event.
+   * @param eventStr The string representation of the held send event.
+   * @return Whether the message can be sent.
+   */
+  static boolean decideHeldSend(SendType heldType, String eventStr) {
+    heldMsgCnt--;
+    boolean shouldProceed = decideSendType(heldType);
+    if (shouldProceed) {
+      recordEvent(Event.parse(eventStr, events.size()));
+    }
+    return shouldProceed;
+  }
+
   /**
    * Handle the given update event. Update the current state with the updated
    * variable. Also check if the network partition status will be affected by
@@ -431,6 +625,42 @@ public class EventManager {
    * Analyze the just finished run. *
    **********************************/
 
+  /**
+   * Remember the messages failed in the current run, so that we can tell the
+   * futile failure plans apart before running them. Also count whether the
+   * current run has exercised its failure plan.
+   */
+  static void recordObservations() {
+    allFailedSendTypes.addAll(failedSendTypes);
+
+    if (curFailurePlan != null) {
+      plannedRunCnt++;
+      if (!failedSendTypes.isEmpty()) {
+        exercisedRunCnt++;
+      }
+      if (steeredThisRun) {
+        steeredRunCnt++;
+      }
+    }
+  }
+
+  /**
+   * Report the share of the runs with a failure plan that have actually failed
+   * some message.
+   */
+  static void reportRunsExercisingPlans() {
+    if (plannedRunCnt == 0) {
+      return;
+    }
+    Logger.info(exercisedRunCnt + " out of " + plannedRunCnt + " runs with a " +
+            "failure plan have failed some message (" +
+            exercisedRunCnt * 100 / plannedRunCnt + "%).");
+    if (Config.STATE_STEERING) {
+      Logger.info(steeredRunCnt + " of these runs have held back some message " +
+              "to steer into the state to keep.");
+    }
+  }
+
   static void recordNewInconsistentStates() {
     for (HashMap<String, String> state : states) {
       if (!invariant.holdsAt(state)) {
@@ -15,11 +15,15 @@
  */
 package cofi.faultinjection;
 
+import cofi.invariant.Invariant;
+import cofi.util.Config;
 import cofi.util.Logger;
+import cofi.util.StrOps;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.TreeMap;
 
 public class FailurePlan {
   // The inconsistent state this failure plan tries to keep.
@@ -32,6 +36,109 @@ public class FailurePlan {
   // The index of the current failure plan.
   static private int planIndex = -1;
 
+  // The node renamings that map the current invariant to itself. Two failure
+  // plans related by one of these renamings are symmetric, i.e., they test the
+  // same scenario with the roles of the nodes swapped.
+  static private ArrayList<HashMap<String, String>> symmetries =
+          new ArrayList<>();
+  // The canonical forms of the failure plans that have been added.
+  static private HashSet<String> addedCanonicalPlans = new HashSet<>();
+  // The failure plans skipped because they are symmetric to an added one.
+  static private HashSet<FailurePlan> symmetricPlans = new HashSet<>();
+
+  /**
+   * Find the node renamings under which the given invariant stays the same.
+   * Only the nodes involved in the invariant are renamed. The identity
+   * renaming is always included.
+   * @param invariant The invariant under test.
+   */
+  static void initSymmetries(Invariant invariant) {
+    symmetries.clear();
+    ArrayList<String> nodes = new ArrayList<>(invariant.getNodes());
+    nodes.remove(null);
+    for (HashMap<String, String> renaming : getPermutations(nodes)) {
+      String renamed = StrOps.renameNodeIDs(invariant.toString(), renaming);
+      if (invariant.equals(Invariant.parse(renamed))) {
+        symmetries.add(renaming);
+      }
+    }
+    Logger.debug("The invariant has " + symmetries.size() + " symmetries.");
+  }
+
+  /**
+   * Get all the permutations of the given nodes, each as a mapping from the
+   * original node ID to the permuted node ID.
+   * @param nodes The IDs of the nodes to permute.
+   * @return All the permutations of the given nodes.
+   */
+  private static ArrayList<HashMap<String, String>>
+  getPermutations(ArrayList<String> nodes) {
+    ArrayList<HashMap<String, String>> permutations = new ArrayList<>();
+    permute(nodes, new ArrayList<>(), permutations);
+    return permutations;
+  }
+
+  /**
+   * Extend the given partial permutation in every possible way.
+   * @param nodes The IDs of the nodes to permute.
+   * @param prefix The targets chosen for the first few nodes.
+   * @param permutations The complete permutations found so far.
+   */
+  private static void permute(ArrayList<String> nodes,
+                              ArrayList<String> prefix,
+                              ArrayList<HashMap<String, String>> permutations) {
+    if (prefix.size() == nodes.size()) {
+      HashMap<String, String> permutation = new HashMap<>();
+      for (int i = 0; i < nodes.size(); ++i) {
+        permutation.put(nodes.get(i), prefix.get(i));
+      }
+      permutations.add(permutation);
+      return;
+    }
+
+    for (String node : nodes) {
+      if (!prefix.contains(node)) {
+        prefix.add(node);
+        permute(nodes, prefix, permutations);
+        prefix.remove(prefix.size() - 1);
+      }
+    }
+  }
+
+  /**
+   * Get the canonical form of this failure plan. Symmetric failure plans have
+   * the same canonical form. The canonical form is the smallest string
+   * representation of this plan under all the symmetries of the invariant.
+   * @return The canonical form of this failure plan.
+   */
+  private String getCanonicalForm() {
+    String canonicalForm = null;
+    for (HashMap<String, String> renaming : symmetries) {
+      TreeMap<String, String> renamedState = new TreeMap<>();
+      for (String varName : stateToKeep.keySet()) {
+        renamedState.put(StrOps.renameNodeIDs(varName, renaming),
+                stateToKeep.get(varName));
+      }
+      String renamedNode = renaming.containsKey(nodeToFail)
+              ? renaming.get(nodeToFail)
+              : nodeToFail;
+      String form = renamedNode + " " + renamedState;
+      if (canonicalForm == null || form.compareTo(canonicalForm) < 0) {
+        canonicalForm = form;
+      }
+    }
+    return canonicalForm;
+  }
+
+  /**
+   * Get the number of failure plans skipped by the symmetry reduction. Each of
+   * them would have taken at least one test run.
+   * @return The number of skipped failure plans.
+   */
+  static int getSymmetricPlanCount() {
+    return symmetricPlans.size();
+  }
+
   /**
    * Check whether the given state is the one this failure plan tries to keep.
    * @param state A state to check.
@@ -91,9 +198,21 @@ public class FailurePlan {
     newPlan.stateToKeep = new HashMap<>(newState);
     newPlan.nodeToFail = newNode;
 
-    if (!allFailurePlans.contains(newPlan)) {
-      allFailurePlans.add(newPlan);
+    if (allFailurePlans.contains(newPlan)
+            || symmetricPlans.contains(newPlan)) {
+      return;
     }
+
+    // With symmetry reduction, skip the plan if we have a symmetric one.
+    if (Config.SYMMETRY_REDUCTION
+            && !symmetries.isEmpty()
+            && !addedCanonicalPlans.add(newPlan.getCanonicalForm())) {
+      Logger.debug("Skipping symmetric failure plan: " + newPlan);
+      symmetricPlans.add(newPlan);
+      return;
+    }
+
+    allFailurePlans.add(newPlan);
   }
 
   /**
@@ -109,6 +228,10 @@ public class FailurePlan {
     return nodeToFail;
   }
 
+  HashMap<String, String> getStateToKeep() {
+    return stateToKeep;
+  }
+
   @Override
   public String toString() {
     return "Keeping the state at " + stateToKeep +
@@ -15,6 +15,7 @@
  */
 package cofi.faultinjection;
 
+import cofi.util.Config;
 import cofi.util.Logger;
 
 import java.io.BufferedReader;
@@ -22,11 +23,19 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.reflect.Field;
 import java.util.Date;
 
 public class TestRunner implements Runnable {
+	/** How a test run ended. */
+	public enum Outcome { PASSED, BUG_TRIGGERED, TIMED_OUT }
+
 	private String runScript;
-	private boolean running = true;
+	private volatile boolean running = true;
+	private volatile Outcome outcome = Outcome.PASSED;
+	// When the test run started, and when it last showed any sign of progress.
+	private volatile long startTime;
+	private volatile long lastActivityTime;
 	StringBuilder scriptOutput = new StringBuilder();
 
 	public TestRunner(String script) {
@@ -37,6 +46,18 @@ public class TestRunner implements Runnable {
 		return running;
 	}
 
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Let the watchdog know that the test run is making progress, e.g., a CoFI
+	 * client has just reported an event.
+	 */
+	public void reportActivity() {
+		lastActivityTime = System.currentTimeMillis();
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -47,10 +68,14 @@ public class TestRunner implements Runnable {
 	}
 
 	private void runMayThrow() throws IOException {
-		// Start a new test run.
-		ProcessBuilder pb = new ProcessBuilder(runScript);
+		// Start a new test run. Run the script in a new session, so that we can
+		// kill everything it spawns, e.g., the ccm-managed nodes, in one go.
+		ProcessBuilder pb = new ProcessBuilder("setsid", runScript);
 		pb.redirectErrorStream(true);
 		Process pRunScript = pb.start();
+		startTime = System.currentTimeMillis();
+		lastActivityTime = startTime;
+		startWatchdog(pRunScript);
 
 		// Pass along the workload's output.
 		BufferedReader workerLogs = new BufferedReader(new
@@ -61,6 +86,7 @@ public class TestRunner implements Runnable {
 			if (workerLog == null) {
 				break;
 			} else {
+				reportActivity();
 				workerLog += "\n";
 				scriptOutput.append(workerLog);
 				System.out.print(workerLog);
@@ -73,6 +99,7 @@ public class TestRunner implements Runnable {
 					//if (!EventManager.hasFailedMsgs) continue;
 
 					Logger.info("Bug triggered.");
+					outcome = Outcome.BUG_TRIGGERED;
 					if (Engine.isReplaying()) {
 						// Wait for user acknowledgement before we exit.
 						System.out.print("Press any key to exit.");
@@ -93,9 +120,118 @@ public class TestRunner implements Runnable {
     	// ignore.
 		}
 
+		if (outcome == Outcome.TIMED_OUT) {
+			recordTimeout();
+		}
 		running = false;
 	}
 
+	/**
+	 * Start a daemon thread that kills the test run once it passes the
+	 * Config.RUN_TIMEOUT_MS deadline, or once it has shown no progress for
+	 * Config.HANG_TIMEOUT_MS.
+	 * @param pRunScript The process running the test script.
+	 */
+	private void startWatchdog(Process pRunScript) {
+		Thread watchdog = new Thread(() -> {
+			while (pRunScript.isAlive()) {
+				long now = System.currentTimeMillis();
+				String reason = null;
+				if (Config.RUN_TIMEOUT_MS > 0
+								&& now - startTime > Config.RUN_TIMEOUT_MS) {
+					reason = "passed the deadline of " + Config.RUN_TIMEOUT_MS + " ms";
+				} else if (Config.HANG_TIMEOUT_MS > 0
+								&& now - lastActivityTime > Config.HANG_TIMEOUT_MS) {
+					reason = "showed no progress for " + Config.HANG_TIMEOUT_MS + " ms";
+				}
+				if (reason != null) {
+					Logger.warn("Test run " + Engine.getIteration() + " " + reason +
+									". Killing it.");
+					outcome = Outcome.TIMED_OUT;
+					killProcessTree(pRunScript);
+					return;
+				}
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		});
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	/**
+	 * Kill the test script and all the processes it has spawned. The script is
+	 * the leader of its own session, so we kill the whole session. Processes that
+	 * have left the session are out of reach, but ccm doesn't do that.
+	 * @param p The process running the test script.
+	 */
+	private static void killProcessTree(Process p) {
+		long pid = getPid(p);
+		if (pid > 0) {
+			try {
+				new ProcessBuilder("pkill", "-KILL", "-s", Long.toString(pid))
+								.inheritIO().start().waitFor();
+			} catch (IOException | InterruptedException e) {
+				Logger.warn("Fail to kill the session of process " + pid, e);
+			}
+		}
+		p.destroyForcibly();
+	}
+
+	/**
+	 * Get the pid of the given process. Process.pid() only exists since Java 9,
+	 * so fall back to the private field of java.lang.UNIXProcess on Java 8.
+	 * @param p The process.
+	 * @return The pid, or -1 if it cannot be found.
+	 */
+	private static long getPid(Process p) {
+		try {
+			return (Long) Process.class.getMethod("pid").invoke(p);
+		} catch (Exception e) {
+			// Not Java 9+. Try the Java 8 way.
+		}
+		try {
+			Field f = p.getClass().getDeclaredField("pid");
+			f.setAccessible(true);
+			return f.getInt(p);
+		} catch (Exception e) {
+			Logger.warn("Fail to get the pid of the test script.", e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Record the test run that has timed out, so that it can be looked into and
+	 * retried later.
+	 */
+	private void recordTimeout() {
+		long ticks = new Date().getTime();
+		try (BufferedWriter writer = new BufferedWriter(
+				new FileWriter("timeout-run-" + ticks + ".txt"))) {
+			writer.write("Invariant:\n");
+			writer.write(Engine.getInvariant() + "\n");
+			writer.write("==========\n");
+
+			writer.write("\n");
+			writer.write("Timed out at run " + Engine.getIteration() + " after " +
+							(System.currentTimeMillis() - startTime) + " ms");
+			writer.write("\n");
+
+			for (SendType e : EventManager.failedSendTypes) {
+				writer.write(e.toString() + "\n");
+			}
+
+			writer.write("\n");
+			writer.write(scriptOutput.toString());
+			writer.flush();
+		} catch (IOException ioe) {
+			die("Fail to record the timed-out test run.", ioe);
+		}
+	}
+
 	/**
 	 * TODO: This is an ugly way to record the triggering process of a failure.
 	 */
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.instrumentation;
+
+import cofi.util.Logger;
+import javassist.*;
+import javassist.expr.ExprEditor;
+import javassist.expr.MethodCall;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Assign a static ID to each call site of the client's hooks, so that the
+ * client can tell the send and receive events apart without walking the call
+ * stack. Two kinds of calls are tagged:
+ * - The calls of the hooks, i.e., the static methods of cofi.client.Client.
+ * - The calls from other classes into the methods that reach a hook within
+ *   their own class, e.g., MessagingService.sendRR(), which reaches
+ *   Client.beforeSend() through MessagingService.sendOneWay().
+ * A tagged call records its ID in cofi.client.CallSites right before it is
+ * made. The ID is the hash of the caller and the position of the call in it,
+ * so it is stable across instrumentations of the same classes. It runs after
+ * GetterAdder, with the class roots on the class path.
+ */
+public class CallSiteTagger {
+  private static final String HOOK_CLASS = "cofi.client.Client";
+  private static final String CALL_SITES_CLASS = "cofi.client.CallSites";
+
+  private final ClassPool pool = ClassPool.getDefault();
+  // The classes in each class root.
+  private final HashMap<String, ArrayList<String>> classesByRoot =
+          new HashMap<>();
+  // The methods that reach a hook, by "class.method(descriptor)".
+  private final HashSet<String> reachingMethods = new HashSet<>();
+  private int taggedCnt = 0;
+
+  /**
+   * Tag the call sites in the given class roots.
+   * @param args The class roots.
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      Logger.fatal("Usage: CallSiteTagger <class-root>...");
+      System.exit(1);
+    }
+    new CallSiteTagger().run(args);
+  }
+
+  private void run(String[] classRoots) {
+    if (pool.getOrNull(CALL_SITES_CLASS) == null) {
+      Logger.warn("Not tagging the call sites because " + CALL_SITES_CLASS +
+              " is not on the class path.");
+      return;
+    }
+    for (String classRoot : classRoots) {
+      classesByRoot.put(classRoot, loadClasses(classRoot));
+    }
+
+    findReachingMethods();
+    Logger.info("Found " + reachingMethods.size() +
+            " methods reaching the hooks.");
+
+    for (String classRoot : classRoots) {
+      for (String className : classesByRoot.get(classRoot)) {
+        tagClass(className, classRoot);
+      }
+    }
+    Logger.info("Tagged " + taggedCnt + " call sites.");
+  }
+
+  /**
+   * Load the names of the classes in the class root, except CoFI's own.
+   */
+  private static ArrayList<String> loadClasses(String classRoot) {
+    Path root = Paths.get(classRoot);
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths
+              .map(path -> root.relativize(path).toString())
+              .filter(name -> name.endsWith(".class"))
+              .map(name -> name.substring(0, name.length() - 6)
+                      .replace('/', '.'))
+              .filter(name -> !name.startsWith("cofi."))
+              .collect(Collectors.toCollection(ArrayList::new));
+    } catch (IOException ioe) {
+      Logger.fatal("Failed to load classes from " + classRoot, ioe);
+      System.exit(1);
+    }
+    return null;
+  }
+
+  private static String keyOf(String className, String methodName,
+                              String descriptor) {
+    return className + "." + methodName + descriptor;
+  }
+
+  /**
+   * Find the methods that call a hook, and then the methods that call them
+   * within the same class, until no more methods are found.
+   */
+  private void findReachingMethods() {
+    // The methods called by each method, within its own class.
+    HashMap<String, HashSet<String>> localCallees = new HashMap<>();
+    for (ArrayList<String> classNames : classesByRoot.values()) {
+      for (String className : classNames) {
+        CtClass cc = pool.getOrNull(className);
+        if (cc == null) {
+          continue;
+        }
+        for (CtBehavior behavior : cc.getDeclaredBehaviors()) {
+          String caller = keyOf(className, behavior.getName(),
+                  behavior.getSignature());
+          HashSet<String> callees = new HashSet<>();
+          try {
+            behavior.instrument(new ExprEditor() {
+              @Override
+              public void edit(MethodCall call) {
+                if (call.getClassName().equals(HOOK_CLASS)) {
+                  reachingMethods.add(caller);
+                } else if (call.getClassName().equals(className)) {
+                  callees.add(keyOf(className, call.getMethodName(),
+                          call.getSignature()));
+                }
+              }
+            });
+          } catch (CannotCompileException cce) {
+            Logger.warn("Fail to scan " + caller, cce);
+          }
+          localCallees.put(caller, callees);
+        }
+        cc.detach();
+      }
+    }
+
+    boolean found = true;
+    while (found) {
+      found = false;
+      for (String caller : localCallees.keySet()) {
+        if (reachingMethods.contains(caller)) {
+          continue;
+        }
+        for (String callee : localCallees.get(caller)) {
+          if (reachingMethods.contains(callee)) {
+            reachingMethods.add(caller);
+            found = true;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tag the calls of the hooks and the calls into the methods reaching them
+   * from other classes, and write the class if any call is tagged.
+   */
+  private void tagClass(String className, String classRoot) {
+    CtClass cc;
+    try {
+      cc = pool.get(className);
+    } catch (NotFoundException nfe) {
+      Logger.warn("Not tagging class " + className + " " +
+              "because we fail to load it.", nfe);
+      return;
+    }
+    if (cc.isFrozen()) {
+      cc.defrost();
+    }
+
+    boolean tagged = false;
+    for (CtBehavior behavior : cc.getDeclaredBehaviors()) {
+      String caller = keyOf(className, behavior.getName(),
+              behavior.getSignature());
+      int[] callCnt = {0};
+      int before = taggedCnt;
+      try {
+        behavior.instrument(new ExprEditor() {
+          @Override
+          public void edit(MethodCall call) throws CannotCompileException {
+            String callee = call.getClassName() + "." + call.getMethodName();
+            int line = call.getLineNumber();
+            boolean isHook;
+            if (call.getClassName().equals(HOOK_CLASS)) {
+              isHook = true;
+            } else if (!call.getClassName().equals(className)
+                    && reachingMethods.contains(keyOf(call.getClassName(),
+                    call.getMethodName(), call.getSignature()))) {
+              isHook = false;
+            } else {
+              return;
+            }
+            int id = (caller + ":" + line + ":" + callCnt[0]++).hashCode();
+            if (id == 0) {
+              id = 1;
+            }
+            if (isHook) {
+              call.replace("{ " + CALL_SITES_CLASS + ".atHook(" + id + "); " +
+                      "$_ = $proceed($$); }");
+            } else {
+              // Restore the caller's entry site however the call ends.
+              call.replace("{ int prevSite = " + CALL_SITES_CLASS +
+                      ".enter(" + id + "); try { $_ = $proceed($$); } " +
+                      "finally { " + CALL_SITES_CLASS + ".exit(prevSite); } }");
+            }
+            Logger.debug("Tagged call site " + id + ": " + caller + " calls " +
+                    callee + " at line " + line);
+            taggedCnt++;
+          }
+        });
+      } catch (CannotCompileException cce) {
+        Logger.warn("Fail to tag the call sites in " + caller, cce);
+      }
+      tagged |= taggedCnt > before;
+    }
+
+    // If we have tagged a call site in the given class, update the class file.
+    try {
+      if (tagged) {
+        cc.writeFile(classRoot);
+      }
+    } catch (CannotCompileException | IOException e) {
+      Logger.fatal("Failed to write the class file of " + className + ".", e);
+      Runtime.getRuntime().halt(1);
+    }
+    cc.detach();
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.instrumentation;
+
+import cofi.util.Logger;
+import cofi.variable.AccessPath;
+import cofi.variable.InterestingVariable;
+import javassist.*;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.SignatureAttribute;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Generate an extractor class for each interesting variable, i.e., a compiled
+ * walk of its access path that the client loads in place of walking the
+ * access path reflectively. Wherever the class of an object on the path is
+ * known from the declared types, including the type arguments of maps,
+ * collections and Atomic* references, the extractor calls its getter
+ * directly. Elsewhere, it falls back to the steps of the client's
+ * AccessChain. It runs after GetterAdder, with the instrumented class roots
+ * on the class path.
+ */
+public class ExtractorGenerator {
+  // The prefix of the extractor class names. It must be kept in sync with
+  // cofi.client.Extractor.
+  private static final String EXTRACTOR_PREFIX = "cofi.client.Extractor_";
+  private static final String CLIENT_PACKAGE = "cofi.client.";
+
+  private final ClassPool pool;
+  private final String rootClass;
+  private final ArrayList<String> accessors;
+  // The declared class and the declared generic type of the object at each
+  // accessor index, or null if unknown.
+  private final CtClass[] classes;
+  private final SignatureAttribute.ObjectType[] genericTypes;
+
+  /**
+   * Generate the extractors for the interesting variables in the given file.
+   * @param args The interesting variables file and the class root to write
+   *             the extractors to.
+   */
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      Logger.fatal("Usage: ExtractorGenerator <interesting-variables-file> " +
+              "<class-root>");
+      System.exit(1);
+    }
+
+    ClassPool pool = ClassPool.getDefault();
+    HashSet<String> paths = new HashSet<>();
+    int generatedCnt = 0;
+    try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        AccessPath path = new InterestingVariable(line).getAccessPath();
+        if (!paths.add(path.toString())) {
+          continue;
+        }
+        try {
+          new ExtractorGenerator(pool, path).generate(args[1]);
+          generatedCnt++;
+        } catch (NotFoundException | CannotCompileException | BadBytecode e) {
+          // The client walks the access path as usual.
+          Logger.warn("Not generating the extractor of " + path, e);
+        }
+      }
+    } catch (IOException ioe) {
+      Logger.fatal("Fail to generate the extractors for " + args[0], ioe);
+      System.exit(1);
+    }
+    Logger.info("Generated " + generatedCnt + " extractors for " +
+            paths.size() + " access paths.");
+  }
+
+  private ExtractorGenerator(ClassPool pool, AccessPath path) {
+    this.pool = pool;
+    this.rootClass = path.getRootClass();
+    this.accessors = path.getAccessors();
+    this.classes = new CtClass[accessors.size()];
+    this.genericTypes = new SignatureAttribute.ObjectType[accessors.size()];
+  }
+
+  /**
+   * Generate the extractor class, with one walk method for each accessor
+   * index, and write it to the class root.
+   */
+  private void generate(String classRoot)
+          throws NotFoundException, CannotCompileException, BadBytecode,
+          IOException {
+    resolveTypes();
+
+    String path = rootClass + "." + String.join(".", accessors);
+    CtClass cc = pool.makeClass(
+            EXTRACTOR_PREFIX + Integer.toHexString(path.hashCode()));
+    cc.addInterface(pool.get(CLIENT_PACKAGE + "Extractor"));
+    cc.addConstructor(CtNewConstructor.defaultConstructor(cc));
+    // Add the walks from the last one, so that each walk can call the next.
+    for (int i = accessors.size() - 1; i >= 0; --i) {
+      cc.addMethod(CtNewMethod.make(walkOf(i), cc));
+    }
+    cc.addMethod(CtNewMethod.make(
+            "public String path() { return \"" + path + "\"; }", cc));
+    cc.addMethod(CtNewMethod.make(
+            "public void extract(" + CLIENT_PACKAGE + "AccessChain chain, " +
+            "java.util.HashSet vars) throws java.lang.Throwable {\n" +
+            "  z0(" + rootObject() + ", \"" + rootClass + "." +
+            accessors.get(0) + "\", vars, chain, " +
+            "chain.newPathSegments());\n" +
+            "}", cc));
+    cc.writeFile(classRoot);
+    cc.detach();
+  }
+
+  /**
+   * Resolve the declared class and generic type of the object at each
+   * accessor index, as far as they can be known.
+   */
+  private void resolveTypes() throws NotFoundException, BadBytecode {
+    CtField root = pool.get(rootClass).getField(accessors.get(0));
+    classes[0] = root.getType();
+    genericTypes[0] = genericTypeOf(root);
+
+    for (int i = 1; i < accessors.size(); ++i) {
+      CtClass prev = classes[i - 1];
+      if (prev == null || prev.isPrimitive()) {
+        break;
+      }
+      String accessor = accessors.get(i);
+      if (accessor.equals("get()")) {
+        CtMethod getter = getterOf(prev, "get");
+        if (getter == null) {
+          break;
+        }
+        classes[i] = getter.getReturnType();
+        if (classes[i].getName().equals("java.lang.Object")) {
+          genericTypes[i] = typeArgumentOf(genericTypes[i - 1], 0);
+          classes[i] = classOf(genericTypes[i]);
+        }
+      } else if (accessor.startsWith("get(")) {
+        if (prev.subtypeOf(pool.get("java.util.Map"))) {
+          genericTypes[i] = typeArgumentOf(genericTypes[i - 1], 1);
+        } else if (prev.subtypeOf(pool.get("java.util.Collection"))) {
+          genericTypes[i] = typeArgumentOf(genericTypes[i - 1], 0);
+        }
+        classes[i] = classOf(genericTypes[i]);
+      } else if (accessor.startsWith("[")) {
+        classes[i] = prev.isArray() ? prev.getComponentType() : null;
+      } else {
+        CtField field;
+        try {
+          field = prev.getField(accessor);
+        } catch (NotFoundException nfe) {
+          // The field is declared by a subclass.
+          break;
+        }
+        classes[i] = field.getType();
+        genericTypes[i] = genericTypeOf(field);
+      }
+    }
+  }
+
+  /**
+   * @return The code that gets the static field of the root class.
+   */
+  private String rootObject() throws NotFoundException {
+    CtClass cls = pool.get(rootClass);
+    CtMethod getter = null;
+    if (isNameable(cls)) {
+      for (CtMethod method : cls.getDeclaredMethods()) {
+        if (method.getName().equals("yGet_" + accessors.get(0))
+                && Modifier.isPublic(method.getModifiers())
+                && Modifier.isStatic(method.getModifiers())
+                && method.getParameterTypes().length == 0) {
+          getter = method;
+        }
+      }
+    }
+    if (getter == null) {
+      return "chain.getStaticField()";
+    }
+    String call = cls.getName() + "." + getter.getName() + "()";
+    return getter.getReturnType().isPrimitive() ? "($w) " + call : call;
+  }
+
+  /**
+   * Generate the walk of the object at the given accessor index. It mirrors
+   * the client's Variable.zoomInAndGetVars().
+   */
+  private String walkOf(int index) throws NotFoundException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("private static void z").append(index).append("(Object o, ")
+            .append("String path, java.util.HashSet vars, ")
+            .append(CLIENT_PACKAGE).append("AccessChain chain, ")
+            .append("String[] segs) throws java.lang.Throwable {\n");
+    sb.append("  if (!").append(CLIENT_PACKAGE)
+            .append("VariableFilter.mayAccept(path, segs, chain, ")
+            .append(index).append(")) { return; }\n");
+    sb.append("  if (o == null) { vars.add(new ").append(CLIENT_PACKAGE)
+            .append("Variable(path, \"string\", \"null\")); return; }\n");
+    if (index == accessors.size() - 1) {
+      sb.append("  ").append(CLIENT_PACKAGE)
+              .append("Variable.recordVariable(path, o, vars);\n");
+    } else {
+      sb.append(stepOf(index + 1));
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+
+  /**
+   * Generate the code that zooms into the given accessor index from the
+   * object at the previous index.
+   */
+  private String stepOf(int index) throws NotFoundException {
+    String accessor = accessors.get(index);
+    String next = "z" + index;
+    StringBuilder sb = new StringBuilder();
+    if (accessor.equals("get(*)")) {
+      // Every element of a collection or a map.
+      sb.append("  if (o instanceof java.util.Collection) {\n")
+              .append("    int idx = 0;\n")
+              .append("    java.util.Iterator elements = ")
+              .append("((java.util.Collection) o).iterator();\n")
+              .append("    while (elements.hasNext()) {\n")
+              .append("      ").append(next).append("(elements.next(), ")
+              .append("path + \".get(\" + idx + \")\", vars, chain, segs);\n")
+              .append("      idx = idx + 1;\n")
+              .append("    }\n")
+              .append("  } else if (o instanceof java.util.Map) {\n")
+              .append("    java.util.Map map = (java.util.Map) o;\n")
+              .append("    java.util.Iterator keys = map.keySet().iterator();\n")
+              .append("    while (keys.hasNext()) {\n")
+              .append("      Object key = keys.next();\n")
+              .append("      ").append(next).append("(map.get(key), ")
+              .append("path + \".get(\" + ").append(CLIENT_PACKAGE)
+              .append("Variable.getHash(key) + \")\", vars, chain, segs);\n")
+              .append("    }\n")
+              .append("  } else {\n")
+              .append("    throw new IllegalArgumentException(\"The specified ")
+              .append("object is neither a collection nor a map. Path=\" + ")
+              .append("path + \"; Value=\" + o);\n")
+              .append("  }\n");
+    } else if (accessor.equals("[*]")) {
+      // Every element of an array.
+      sb.append("  int len = java.lang.reflect.Array.getLength(o);\n")
+              .append("  int idx = 0;\n")
+              .append("  while (idx < len) {\n")
+              .append("    ").append(next)
+              .append("(java.lang.reflect.Array.get(o, idx), ")
+              .append("path + \".[\" + idx + \"]\", vars, chain, segs);\n")
+              .append("    idx = idx + 1;\n")
+              .append("  }\n");
+    } else if (accessor.startsWith("[")) {
+      // The element of an array at the index.
+      int num = Integer.parseInt(
+              accessor.substring(1, accessor.length() - 1));
+      String element = num < 0 ? "null"
+              : "(java.lang.reflect.Array.getLength(o) > " + num +
+              " ? java.lang.reflect.Array.get(o, " + num + ") : null)";
+      sb.append("  ").append(next).append("(").append(element)
+              .append(", path + \".").append(accessor)
+              .append("\", vars, chain, segs);\n");
+    } else if (accessor.startsWith("get(") && !accessor.equals("get()")) {
+      // The element of a collection or a map.
+      int num = Integer.parseInt(
+              accessor.substring(4, accessor.length() - 1));
+      sb.append("  ").append(next).append("(").append(CLIENT_PACKAGE)
+              .append("Variable.elementOf(o, ").append(num)
+              .append(", path), path + \".").append(accessor)
+              .append("\", vars, chain, segs);\n");
+    } else {
+      // A field, or the object referred to by an Atomic* object.
+      CtClass cls = classes[index - 1];
+      CtMethod getter = null;
+      if (cls != null && isNameable(cls)) {
+        getter = getterOf(cls,
+                accessor.equals("get()") ? "get" : "yGet_" + accessor);
+      }
+      sb.append("  Object nextObj;\n");
+      if (getter != null) {
+        String call = "((" + cls.getName() + ") o)." + getter.getName() + "()";
+        sb.append("  if (o instanceof ").append(cls.getName()).append(") {\n")
+                .append("    nextObj = ")
+                .append(getter.getReturnType().isPrimitive() ? "($w) " : "")
+                .append(call).append(";\n")
+                .append("  } else {\n")
+                .append("    nextObj = chain.getStep(").append(index)
+                .append(").get(o);\n")
+                .append("  }\n");
+      } else {
+        sb.append("  nextObj = chain.getStep(").append(index)
+                .append(").get(o);\n");
+      }
+      sb.append("  ").append(next).append("(nextObj, path + \".")
+              .append(accessor).append("\", vars, chain, segs);\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return Whether the class can be named in the generated code, i.e., it is
+   *         a public class that is not nested.
+   */
+  private static boolean isNameable(CtClass cls) {
+    return !cls.isPrimitive() && !cls.isArray()
+            && Modifier.isPublic(cls.getModifiers())
+            && !cls.getName().contains("$");
+  }
+
+  /**
+   * @return The public instance getter of the class with the given name, or
+   *         null if there's none.
+   */
+  private static CtMethod getterOf(CtClass cls, String name)
+          throws NotFoundException {
+    for (CtMethod method : cls.getMethods()) {
+      if (method.getName().equals(name)
+              && Modifier.isPublic(method.getModifiers())
+              && !Modifier.isStatic(method.getModifiers())
+              && method.getParameterTypes().length == 0) {
+        return method;
+      }
+    }
+    return null;
+  }
+
+  private static SignatureAttribute.ObjectType genericTypeOf(CtField field)
+          throws BadBytecode {
+    String signature = field.getGenericSignature();
+    return signature == null ? null
+            : SignatureAttribute.toFieldSignature(signature);
+  }
+
+  /**
+   * @return The upper bound of the type argument at the given index, or null
+   *         if it is not known.
+   */
+  private static SignatureAttribute.ObjectType typeArgumentOf(
+          SignatureAttribute.ObjectType type, int index) {
+    if (!(type instanceof SignatureAttribute.ClassType)) {
+      return null;
+    }
+    SignatureAttribute.TypeArgument[] args =
+            ((SignatureAttribute.ClassType) type).getTypeArguments();
+    if (args == null || args.length <= index) {
+      return null;
+    }
+    char kind = args[index].getKind();
+    return kind == ' ' || kind == '+' ? args[index].getType() : null;
+  }
+
+  private CtClass classOf(SignatureAttribute.ObjectType type) {
+    // The names of nested classes are not resolved.
+    if (!(type instanceof SignatureAttribute.ClassType)
+            || type instanceof SignatureAttribute.NestedClassType) {
+      return null;
+    }
+    return pool.getOrNull(((SignatureAttribute.ClassType) type).getName());
+  }
+}
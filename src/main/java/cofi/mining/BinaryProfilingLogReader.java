@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static cofi.mining.BinaryProfilingLogWriter.*;
+
+/**
+ * Read a profiling log in the binary format through a memory-mapped buffer.
+ * See BinaryProfilingLogWriter for the format.
+ */
+public class BinaryProfilingLogReader extends ProfilingLogReader {
+	private final String fileName;
+	private final MappedByteBuffer buffer;
+	private final ArrayList<String> dictionary = new ArrayList<>();
+
+	/**
+	 * @param logFile The profiling log.
+	 * @param filtered Whether to skip the variables we are not interested in.
+	 */
+	public BinaryProfilingLogReader(File logFile, boolean filtered)
+					throws IOException {
+		super(filtered);
+		fileName = logFile.getName();
+		try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+				 FileChannel channel = file.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Profiling log " + fileName + " is too large " +
+								"to map: " + channel.size() + " bytes.");
+			}
+			// The mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		for (byte b : MAGIC) {
+			if (!buffer.hasRemaining() || buffer.get() != b) {
+				throw new IOException(fileName + " is not a binary profiling log.");
+			}
+		}
+		byte version = buffer.get();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version + " of " +
+							"binary profiling log " + fileName);
+		}
+	}
+
+	@Override
+	public Entry next() throws IOException {
+		while (buffer.hasRemaining()) {
+			int start = buffer.position();
+			try {
+				byte tag = buffer.get();
+				if (tag == TAG_DEF) {
+					dictionary.add(readString());
+				} else if (tag == TAG_ENTRY) {
+					return readEntry();
+				} else {
+					throw new IOException("Bad tag " + tag + " at offset " + start +
+									" of " + fileName);
+				}
+			} catch (BufferUnderflowException bue) {
+				// The node was likely killed while writing the log.
+				throw new IOException("Truncated record at offset " + start + " of " +
+								fileName, bue);
+			}
+		}
+		return null;
+	}
+
+	private Entry readEntry() throws IOException {
+		String action;
+		byte actionByte = buffer.get();
+		switch (actionByte) {
+			case ACTION_INIT:
+				action = "init";
+				break;
+			case ACTION_SEND:
+				action = "send";
+				break;
+			case ACTION_RECEIVE:
+				action = "receive";
+				break;
+			default:
+				action = readString();
+		}
+		Entry entry = new Entry(action, readString());
+
+		int dpCnt = (int) readVarint();
+		for (int dpIdx = 0; dpIdx < dpCnt; ++dpIdx) {
+			DumpPoint dp = new DumpPoint(readRef());
+			int varCnt = (int) readVarint();
+			for (int varIdx = 0; varIdx < varCnt; ++varIdx) {
+				String name = readRef();
+				byte kind = buffer.get();
+				switch (kind) {
+					case VALUE_INT:
+						long zigzag = readVarint();
+						addVar(dp, name, "int",
+										Long.toString((zigzag >>> 1) ^ -(zigzag & 1)));
+						break;
+					case VALUE_TRUE:
+						addVar(dp, name, "boolean", "true");
+						break;
+					case VALUE_FALSE:
+						addVar(dp, name, "boolean", "false");
+						break;
+					case VALUE_FLOAT:
+						addVar(dp, name, "float", readString());
+						break;
+					case VALUE_STRING:
+						addVar(dp, name, "string", readString());
+						break;
+					case VALUE_OTHER:
+						String type = readRef();
+						addVar(dp, name, type, readString());
+						break;
+					default:
+						throw new IOException("Bad value kind " + kind + " at offset " +
+										(buffer.position() - 1) + " of " + fileName);
+				}
+			}
+			entry.dumpPoints.add(dp);
+		}
+		return entry;
+	}
+
+	private String readRef() throws IOException {
+		long id = readVarint();
+		if (id >= dictionary.size()) {
+			throw new IOException("Undefined string #" + id + " in " + fileName);
+		}
+		return dictionary.get((int) id);
+	}
+
+	private String readString() {
+		int length = (int) readVarint();
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private long readVarint() {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	@Override
+	public void close() {
+		// The mapping is released when the buffer is garbage collected.
+	}
+}
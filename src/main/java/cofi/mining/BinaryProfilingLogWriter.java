@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Write a profiling log in the binary format. The client writes the same
+ * format in cofi.client.ProfilingLog; keep the two in sync.
+ *
+ * The file starts with the magic "COFB" and a version byte, followed by a
+ * sequence of records. Each record starts with a tag byte:
+ * - TAG_DEF defines the next string in the dictionary of the file, i.e., an
+ *   access path, a dump point ID, or a type name. The strings are numbered
+ *   from 0, in the order they are defined, and always defined before use.
+ * - TAG_ENTRY is an entry of the log: the action byte, the message ID, the
+ *   number of dump points, and for each dump point, the reference to its ID,
+ *   the number of variables, and for each variable, the reference to its
+ *   access path and its typed value.
+ * Numbers and references are unsigned varints. Strings are a varint length
+ * followed by UTF-8 bytes. An int value is a zigzag varint, a boolean value
+ * is encoded in its kind byte, and the other values are strings, so every
+ * value reads back exactly as it was dumped.
+ */
+public class BinaryProfilingLogWriter implements Closeable {
+	static final byte[] MAGIC = {'C', 'O', 'F', 'B'};
+	static final byte VERSION = 1;
+
+	static final byte TAG_DEF = 1;
+	static final byte TAG_ENTRY = 2;
+
+	static final byte ACTION_INIT = 0;
+	static final byte ACTION_SEND = 1;
+	static final byte ACTION_RECEIVE = 2;
+	// Followed by the action as a string.
+	static final byte ACTION_OTHER = 3;
+
+	static final byte VALUE_INT = 0;
+	static final byte VALUE_TRUE = 1;
+	static final byte VALUE_FALSE = 2;
+	static final byte VALUE_FLOAT = 3;
+	static final byte VALUE_STRING = 4;
+	// Followed by the reference to the type, and the value as a string.
+	static final byte VALUE_OTHER = 5;
+
+	private final OutputStream out;
+	private final HashMap<String, Integer> dictionary = new HashMap<>();
+	// The new dictionary entries and the body of the entry being written.
+	private final ByteArrayOutputStream defs = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	public BinaryProfilingLogWriter(File logFile) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(logFile));
+		out.write(MAGIC);
+		out.write(VERSION);
+	}
+
+	/**
+	 * Write an entry of the profiling log.
+	 * @param entry The entry to write.
+	 */
+	public void write(ProfilingLogReader.Entry entry) throws IOException {
+		body.write(TAG_ENTRY);
+		switch (entry.action) {
+			case "init":
+				body.write(ACTION_INIT);
+				break;
+			case "send":
+				body.write(ACTION_SEND);
+				break;
+			case "receive":
+				body.write(ACTION_RECEIVE);
+				break;
+			default:
+				body.write(ACTION_OTHER);
+				writeString(body, entry.action);
+		}
+		writeString(body, entry.msgId);
+		writeVarint(body, entry.dumpPoints.size());
+		for (DumpPoint dp : entry.dumpPoints) {
+			writeVarint(body, ref(dp.id));
+			writeVarint(body, dp.getVars().size());
+			for (DumpPoint.Variable v : dp.getVars()) {
+				writeVarint(body, ref(v.name));
+				writeValue(v.type, v.value);
+			}
+		}
+
+		defs.writeTo(out);
+		body.writeTo(out);
+		defs.reset();
+		body.reset();
+	}
+
+	private void writeValue(String type, String value) throws IOException {
+		switch (type) {
+			case "int":
+				try {
+					long l = Long.parseLong(value);
+					if (Long.toString(l).equals(value)) {
+						body.write(VALUE_INT);
+						writeVarint(body, (l << 1) ^ (l >> 63));
+						return;
+					}
+				} catch (NumberFormatException nfe) {
+					// Not a canonical long. Write it as a string.
+				}
+				break;
+			case "boolean":
+				if (value.equals("true")) {
+					body.write(VALUE_TRUE);
+					return;
+				} else if (value.equals("false")) {
+					body.write(VALUE_FALSE);
+					return;
+				}
+				break;
+			case "float":
+				body.write(VALUE_FLOAT);
+				writeString(body, value);
+				return;
+			case "string":
+				body.write(VALUE_STRING);
+				writeString(body, value);
+				return;
+		}
+		body.write(VALUE_OTHER);
+		writeVarint(body, ref(type));
+		writeString(body, value);
+	}
+
+	/**
+	 * Get the reference to the string, defining it if it's new.
+	 */
+	private int ref(String str) throws IOException {
+		Integer id = dictionary.get(str);
+		if (id == null) {
+			id = dictionary.size();
+			dictionary.put(str, id);
+			defs.write(TAG_DEF);
+			writeString(defs, str);
+		}
+		return id;
+	}
+
+	private static void writeString(OutputStream os, String str)
+					throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		writeVarint(os, bytes.length);
+		os.write(bytes);
+	}
+
+	private static void writeVarint(OutputStream os, long value)
+					throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			os.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		os.write((int) value);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
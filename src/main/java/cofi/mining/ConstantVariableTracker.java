@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Find out the variables that never change, so that they don't go into the
+ * dtrace files as useless columns. A variable is constant if
+ * - it has the same value in every dump point of every thread on every node,
+ * - it is in every dump point of each thread that dumps it, and
+ * - no other variable is under it, or above it, i.e., its access path is not
+ *   a prefix of another access path at a '.' boundary, or the other way
+ *   around. Otherwise, the structure around it changes.
+ *
+ * Each thread is tracked separately, e.g., by the thread loading its log, and
+ * the trackers are merged into a global one before the decision is made.
+ * Every step is a hash lookup per variable, so the tracking takes time linear
+ * in the size of the logs.
+ */
+public class ConstantVariableTracker {
+	// Marks the variables that change. Compared by reference.
+	private static final String kChanged = new String("<changed>");
+
+	// The value of each variable if it has been the same so far, or kChanged.
+	private final HashMap<String, String> values = new HashMap<>();
+	// The number of dump points each variable is in, for a single thread.
+	private final HashMap<String, Integer> occurrences = new HashMap<>();
+	// The access paths that some other variable is under.
+	private final HashSet<String> prefixes = new HashSet<>();
+	// The number of dump points tracked, for a single thread.
+	private int dumpPointCnt = 0;
+	// The constant variables, once decided.
+	private HashSet<String> constants = null;
+	private long removedValueCnt = 0;
+
+	/**
+	 * Track the variables of a dump point of the thread.
+	 * @param dp The dump point.
+	 */
+	public void add(DumpPoint dp) {
+		dumpPointCnt++;
+		for (DumpPoint.Variable v : dp.getVars()) {
+			String value = values.get(v.name);
+			if (value == null) {
+				values.put(v.name, v.value);
+			} else if (value != kChanged && !value.equals(v.value)) {
+				values.put(v.name, kChanged);
+			}
+			occurrences.merge(v.name, 1, Integer::sum);
+
+			for (int dot = v.name.lastIndexOf('.'); dot > 0;
+					 dot = v.name.lastIndexOf('.', dot - 1)) {
+				// The shorter prefixes are already there if this one is.
+				if (!prefixes.add(v.name.substring(0, dot))) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge the tracking of a thread into this global tracker.
+	 * @param thread The tracker of the thread.
+	 */
+	public void merge(ConstantVariableTracker thread) {
+		for (String name : thread.values.keySet()) {
+			String value = thread.values.get(name);
+			// A variable missing from some dump points of the thread changes.
+			if (thread.occurrences.get(name) != thread.dumpPointCnt) {
+				value = kChanged;
+			}
+			String globalValue = values.get(name);
+			if (globalValue == null) {
+				values.put(name, value);
+			} else if (globalValue != kChanged && !globalValue.equals(value)) {
+				values.put(name, kChanged);
+			}
+		}
+		prefixes.addAll(thread.prefixes);
+	}
+
+	/**
+	 * Decide which variables are constant, after all the threads are merged.
+	 */
+	public void decide() {
+		constants = new HashSet<>();
+		for (String name : values.keySet()) {
+			if (values.get(name) == kChanged || prefixes.contains(name)) {
+				continue;
+			}
+			boolean underVariable = false;
+			for (int dot = name.lastIndexOf('.'); dot > 0 && !underVariable;
+					 dot = name.lastIndexOf('.', dot - 1)) {
+				underVariable = values.containsKey(name.substring(0, dot));
+			}
+			if (!underVariable) {
+				constants.add(name);
+			}
+		}
+		Logger.info("Found " + constants.size() + " constant variables out of " +
+						values.size() + ".");
+	}
+
+	/**
+	 * Remove the constant variables from the dump point.
+	 * @param dp The dump point.
+	 */
+	public void removeConstants(DumpPoint dp) {
+		ArrayList<String> toRemove = new ArrayList<>();
+		for (DumpPoint.Variable v : dp.getVars()) {
+			if (constants.contains(v.name)) {
+				toRemove.add(v.name);
+			}
+		}
+		for (String name : toRemove) {
+			dp.removeVar(name);
+		}
+		removedValueCnt += toRemove.size();
+	}
+
+	public void logStats() {
+		Logger.info("Eliminated " + constants.size() + " constant variables, " +
+						"i.e., " + removedValueCnt + " values, out of the dump points.");
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Config;
+import cofi.util.Logger;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run Daikon over the dtrace files in parallel, and merge the results into a
+ * single invariant file for InvPruner.
+ *
+ * Each dtrace file is mined by a child JVM, as Daikon keeps its state in
+ * static fields and cannot run twice in the same JVM at the same time. The
+ * number of workers is bounded by both the number of cores and the physical
+ * memory, given Config.DAIKON_WORKER_HEAP_MB of heap per worker. The output of
+ * each worker goes into its own file, and the files are concatenated in the
+ * order of the dtrace file names, so the result doesn't depend on the order
+ * in which the workers finish.
+ */
+public class DaikonDriver {
+  private static final String kOutputDir = "daikon-outputs";
+
+  /**
+   * Usage: DaikonDriver <dtrace-dir> <daikon-jar> <invariants.txt>
+   */
+  public static void main(String[] args) {
+    if (args.length != 3) {
+      Logger.fatal("Usage: java cofi.mining.DaikonDriver <dtrace-dir> " +
+              "<daikon-jar> <invariants.txt>");
+      System.exit(1);
+    }
+
+    try {
+      run(new File(args[0]), args[1], new File(args[2]));
+    } catch (Throwable t) {
+      Logger.fatal("Unexpected exception when mining invariants.", t);
+      System.exit(1);
+    }
+  }
+
+  private static void run(File dtraceDir, String daikonJar, File invFile)
+          throws IOException, InterruptedException {
+    File[] dtraces = dtraceDir.listFiles((dir, name) ->
+            name.endsWith(".dtrace") || name.endsWith(".dtrace.gz"));
+    if (dtraces == null) {
+      throw new IOException("Cannot list the dtrace files in " + dtraceDir);
+    }
+    // Start the largest dtrace files first, so that a large file started last
+    // doesn't keep one worker busy while the others are idle.
+    Arrays.sort(dtraces, Comparator.comparingLong(File::length).reversed()
+            .thenComparing(File::getName));
+
+    File outputDir = new File(kOutputDir);
+    outputDir.mkdirs();
+    int workerCnt = getWorkerCount();
+    Logger.info("Mining " + dtraces.length + " dtrace files with " +
+            workerCnt + " workers.");
+
+    ExecutorService workers = Executors.newFixedThreadPool(workerCnt);
+    for (File dtrace : dtraces) {
+      workers.submit(() -> mine(dtrace, daikonJar, outputFileFor(dtrace)));
+    }
+    workers.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+    // Merge the outputs in the order of the dtrace file names.
+    Arrays.sort(dtraces, Comparator.comparing(File::getName));
+    try (OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(invFile))) {
+      out.write('\n');
+      for (File dtrace : dtraces) {
+        File output = outputFileFor(dtrace);
+        if (output.exists()) {
+          Files.copy(output.toPath(), out);
+          output.delete();
+        }
+      }
+    }
+    outputDir.delete();
+  }
+
+  private static File outputFileFor(File dtrace) {
+    return new File(kOutputDir, dtrace.getName() + ".txt");
+  }
+
+  /**
+   * Run Daikon over a dtrace file in a child JVM.
+   * @param dtrace The dtrace file.
+   * @param daikonJar The path to daikon.jar.
+   * @param output The file to store Daikon's output.
+   */
+  private static void mine(File dtrace, String daikonJar, File output) {
+    Logger.info("[runDaikon] Mining " + dtrace);
+    ProcessBuilder pb = new ProcessBuilder(
+            "java", "-Xmx" + Config.DAIKON_WORKER_HEAP_MB + "m",
+            "-XX:-UseGCOverheadLimit", "-cp", daikonJar, "daikon.Daikon",
+            dtrace.getPath());
+    pb.redirectOutput(output);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    try {
+      int exitCode = pb.start().waitFor();
+      if (exitCode != 0) {
+        Logger.warn("Daikon exited with " + exitCode + " when mining " + dtrace);
+      }
+    } catch (IOException | InterruptedException e) {
+      Logger.error("Fail to run Daikon on " + dtrace, e);
+    }
+  }
+
+  /**
+   * Get the number of workers that the cores and the memory can afford.
+   * @return The number of workers.
+   */
+  private static int getWorkerCount() {
+    int cores = Runtime.getRuntime().availableProcessors();
+    int workerCnt = cores;
+    long totalMem = getTotalMemorySize();
+    if (totalMem > 0) {
+      long totalMemMB = totalMem / 1024 / 1024;
+      long usableMemMB = (long) (totalMemMB * Config.DAIKON_MEMORY_FRACTION);
+      workerCnt = (int) Math.min(workerCnt,
+              usableMemMB / Config.DAIKON_WORKER_HEAP_MB);
+      Logger.info(cores + " cores and " + totalMemMB + " MB of memory " +
+              "available for mining.");
+    }
+    if (Config.DAIKON_MAX_WORKERS > 0) {
+      workerCnt = Math.min(workerCnt, Config.DAIKON_MAX_WORKERS);
+    }
+    return Math.max(1, workerCnt);
+  }
+
+  /**
+   * Get the size of the physical memory. getTotalMemorySize() only exists
+   * since Java 14, and getTotalPhysicalMemorySize() is deprecated since, so
+   * both are looked up by reflection.
+   * @return The size in bytes, or -1 if it cannot be found.
+   */
+  private static long getTotalMemorySize() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (!(os instanceof com.sun.management.OperatingSystemMXBean)) {
+      return -1;
+    }
+    for (String name : new String[] {
+            "getTotalMemorySize", "getTotalPhysicalMemorySize"}) {
+      try {
+        return (Long) com.sun.management.OperatingSystemMXBean.class
+                .getMethod(name).invoke(os);
+      } catch (Exception e) {
+        // Try the older name.
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read a dtrace file written by LogMerger, i.e., the declarations of a single
+ * program point followed by its data trace records. Gzipped files are
+ * supported as well.
+ */
+public class DtraceReader implements Closeable {
+  private final BufferedReader reader;
+  private String pptName = null;
+  private final ArrayList<String> varNames = new ArrayList<>();
+  private final ArrayList<String> varTypes = new ArrayList<>();
+
+  public DtraceReader(File dtrace) throws IOException {
+    InputStream in = new FileInputStream(dtrace);
+    if (dtrace.getName().endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    reader = new BufferedReader(new InputStreamReader(in));
+    readDecls();
+  }
+
+  /**
+   * Read the declarations, up to the empty line that ends them.
+   */
+  private void readDecls() throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.startsWith("ppt ")) {
+        pptName = line.substring("ppt ".length());
+      } else if (line.startsWith("variable ")) {
+        varNames.add(line.substring("variable ".length()));
+      } else if (line.startsWith("rep-type ")) {
+        varTypes.add(line.substring("rep-type ".length()));
+      } else if (line.equals("") && pptName != null) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return The name of the program point, e.g., "pdpId:::UNUSED".
+   */
+  public String getPptName() {
+    return pptName;
+  }
+
+  public ArrayList<String> getVarNames() {
+    return varNames;
+  }
+
+  public ArrayList<String> getVarTypes() {
+    return varTypes;
+  }
+
+  /**
+   * Read the values of the next data trace record. The values are in the
+   * order of the declarations, as written in the dtrace file, e.g., strings
+   * are double-quoted.
+   * @return The values, or null if there is no record left.
+   */
+  public String[] nextRecord() throws IOException {
+    String line = reader.readLine();
+    while (line != null && line.equals("")) {
+      line = reader.readLine();
+    }
+    if (line == null) {
+      return null;
+    }
+
+    // Skip the nonce.
+    reader.readLine();
+    reader.readLine();
+
+    String[] values = new String[varNames.size()];
+    for (int i = 0; i < values.length; ++i) {
+      String name = reader.readLine();
+      if (!varNames.get(i).equals(name)) {
+        throw new IOException("Expecting variable " + varNames.get(i) +
+                " in ppt " + pptName + " but got " + name);
+      }
+      values[i] = reader.readLine();
+      // Skip the modified flag.
+      reader.readLine();
+    }
+    return values;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.invariant.Invariant;
+import cofi.invariant.VariableEquality;
+import cofi.util.Logger;
+import cofi.variable.Variable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * A scaling benchmark for InvPruner.deriveEqualityInvs(). For each size, it
+ * writes a synthetic invariant file with that many lines, loads it, and
+ * derives the equalities with the union-find. Up to the given number of
+ * lines, the result and the running time are also checked against the
+ * original fixpoint derivation.
+ *
+ * Usage: EqualityClosureBenchmark [max-fixpoint-lines] [lines...]
+ */
+public class EqualityClosureBenchmark {
+  public static void main(String[] args) {
+    int maxFixpointLines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    ArrayList<Integer> sizes = new ArrayList<>();
+    for (int i = 1; i < args.length; ++i) {
+      sizes.add(Integer.parseInt(args[i]));
+    }
+    if (sizes.isEmpty()) {
+      Collections.addAll(sizes, 10000, 100000, 1000000);
+    }
+
+    try {
+      for (int lines : sizes) {
+        File invFile = File.createTempFile("invariants-" + lines + "-", ".txt");
+        invFile.deleteOnExit();
+        generateInvariants(invFile, lines);
+        HashSet<Invariant> invs = InvPruner.loadInvsFromFile(invFile.getPath());
+        invFile.delete();
+        Logger.info("Loaded " + invs.size() + " unique invariants out of " +
+                lines + " lines.");
+
+        long startTime = System.nanoTime();
+        HashSet<Invariant> actual = InvPruner.deriveEqualityInvs(invs);
+        long unionFindMs = (System.nanoTime() - startTime) / 1000000;
+        Logger.info("Union-find derivation: " + unionFindMs + " ms, " +
+                actual.size() + " invariants.");
+
+        if (lines > maxFixpointLines) {
+          continue;
+        }
+        startTime = System.nanoTime();
+        HashSet<Invariant> expected = deriveEqualityInvsFixpoint(invs);
+        long fixpointMs = (System.nanoTime() - startTime) / 1000000;
+        Logger.info("Fixpoint derivation: " + fixpointMs + " ms, " +
+                expected.size() + " invariants.");
+
+        if (!getGlobalEqualities(expected).equals(getGlobalEqualities(actual))) {
+          Logger.fatal("The union-find derivation leads to different global " +
+                  "invariants.");
+          System.exit(1);
+        }
+        Logger.info("Both derivations lead to the same global invariants.");
+      }
+    } catch (IOException ioe) {
+      Logger.fatal("Fail to run the benchmark.", ioe);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Write the given number of invariants in Daikon's output format. The
+   * variables come in small classes spread over three nodes. Each class is
+   * connected by a chain of equalities in random order, and some of the
+   * classes are joined through a shared constant.
+   */
+  private static void generateInvariants(File invFile, int lines)
+          throws IOException {
+    Random random = new Random(42);
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(invFile))) {
+      int lineCnt = 0;
+      for (int classIdx = 0; lineCnt < lines; ++classIdx) {
+        if (classIdx % 100 == 0) {
+          writer.write("===========================================================================\n");
+          writer.write("dpS" + classIdx + "_td1_nd1_and_dpR" + classIdx +
+                  "_td1_nd2:::UNUSED\n");
+        }
+        ArrayList<String> vars = new ArrayList<>();
+        int size = 2 + random.nextInt(5);
+        for (int i = 0; i < size; ++i) {
+          vars.add("nd" + (1 + random.nextInt(3)) +
+                  "-org.apache.cassandra.gms.Gossiper.instance.f" + classIdx +
+                  ".get(" + i + ")");
+        }
+        Collections.shuffle(vars, random);
+        for (int i = 1; i < vars.size() && lineCnt < lines; ++i, ++lineCnt) {
+          writer.write(vars.get(i - 1) + " == " + vars.get(i) + "\n");
+        }
+        if (random.nextInt(4) == 0 && lineCnt < lines) {
+          writer.write(vars.get(0) + " == \"v" + classIdx / 2 + "\"\n");
+          lineCnt++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Keep the equalities between variables on different nodes, like
+   * InvPruner.getGlobalInvariants() does.
+   */
+  private static HashSet<VariableEquality> getGlobalEqualities(
+          HashSet<Invariant> invs) {
+    HashSet<VariableEquality> globalInvs = new HashSet<>();
+    for (Invariant inv : invs) {
+      if (!(inv instanceof VariableEquality) || inv.getVars().size() != 2) {
+        continue;
+      }
+      ArrayList<String> vars = new ArrayList<>(inv.getVars());
+      String node1 = Variable.getNodeId(vars.get(0));
+      String node2 = Variable.getNodeId(vars.get(1));
+      if (!node1.equals("") && !node2.equals("") && !node1.equals(node2)) {
+        globalInvs.add((VariableEquality) inv);
+      }
+    }
+    return globalInvs;
+  }
+
+  /**
+   * The original derivation in InvPruner.deriveEqualityInvs().
+   */
+  private static HashSet<Invariant>
+  deriveEqualityInvsFixpoint(HashSet<Invariant> invs) {
+    HashSet<Invariant> expandedInvs = new HashSet<>();
+    // Get the involved access paths and values.
+    HashMap<String, HashSet<String>> id2EquivalentIDs = new HashMap<>();
+    for (Invariant inv : invs) {
+      for (String id : inv.getVarsAndVals()) {
+        if (!id2EquivalentIDs.keySet().contains(id)) {
+          id2EquivalentIDs.put(id, new HashSet<>());
+        }
+      }
+    }
+
+    // Keep deriving equivalent IDs.
+    boolean foundNewEq = true;
+    while (foundNewEq) {
+      foundNewEq = false;
+      for (Invariant inv : invs) {
+        ArrayList<String> vars = new ArrayList<>(inv.getVarsAndVals());
+        String id1 = vars.get(0);
+        String id2 = vars.get(1);
+        HashSet<String> eq1 = id2EquivalentIDs.get(id1);
+        HashSet<String> eq2 = id2EquivalentIDs.get(id2);
+        if (eq1.add(id2)) foundNewEq = true;
+        if (eq1.addAll(eq2)) foundNewEq = true;
+        if (eq2.add(id1)) foundNewEq = true;
+        if (eq2.addAll(eq1)) foundNewEq = true;
+      }
+    }
+
+    // Record the original invariants and the derived invariants.
+    expandedInvs.addAll(invs);
+    for (String id1 : id2EquivalentIDs.keySet()) {
+      for (String id2 : id2EquivalentIDs.get(id1)) {
+        if (id1.startsWith("nd") && id2.startsWith("nd")) {
+          expandedInvs.add(new VariableEquality(id1, id2));
+        }
+      }
+    }
+
+    return expandedInvs;
+  }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.invariant.Invariant;
+import cofi.invariant.VariableEquality;
+import cofi.util.Config;
+import cofi.util.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Mine the equality invariants of a program point without Daikon. InvPruner
+ * only keeps the equalities between variables (directly, or derived through
+ * the constants), so we only need to find out which variables always have the
+ * same value, and which variables never change.
+ *
+ * The variables are partitioned into equivalence classes, starting with one
+ * class per type. Each sample splits every class by the values of its
+ * members, so after all the samples, two variables are in the same class iff
+ * they are equal in every sample. Each class also tracks the single value its
+ * members have had, if any. The result is written the way Daikon reports
+ * them: the leader of each class equals each of the other members, and the
+ * leader of a constant class equals the constant. Like Daikon, which needs
+ * enough observations to justify an invariant, nothing is reported for a
+ * program point with fewer than Config.MINING_MIN_SAMPLES samples.
+ *
+ * The state of the miner, i.e., the classes, the constants, and the number of
+ * samples, can be saved and loaded again, so that the profiling logs of later
+ * test runs only refine the existing results. A variable missing from a
+ * dtrace file has the default value that LogMerger writes for it, e.g., 0 for
+ * an int, in each of its samples. So a variable that first shows up in a later
+ * run joins the class that has been constantly the default value.
+ *
+ * Refining the results run by run is not the same as mining the logs of all
+ * the runs at once, though. The program points are named after the threads
+ * that reach the dump points, and the thread IDs change from run to run, so a
+ * later run mostly adds program points rather than refining the earlier ones.
+ * LogMerger also drops the variables that prefix other variables within the
+ * logs it merges, so a variable kept in one run may be dropped when the logs
+ * of all the runs are merged together.
+ */
+public class EqualityMiner {
+  // The name of the file in the state directory that caches the invariants of
+  // every program point in the state, so that a refinement doesn't load the
+  // states of the program points it doesn't mine.
+  private static final String MINED_INVARIANTS_FILE_NAME = "invariants.txt";
+
+  private final String pptName;
+  private final ArrayList<String> varNames = new ArrayList<>();
+  private final ArrayList<String> varTypes = new ArrayList<>();
+  private final HashMap<String, Integer> indexOfVar = new HashMap<>();
+  // The class of each variable. A class is identified by its leader, i.e.,
+  // its first variable.
+  private int[] classOf;
+  // The value of each class if it has been constant so far, or null, indexed
+  // by the leader.
+  private String[] constantOf;
+  private int sampleCnt = 0;
+
+  /**
+   * @param pptName The name of the program point.
+   * @param varNames The names of the variables, in the declaration order.
+   * @param varTypes The types of the variables.
+   */
+  public EqualityMiner(String pptName, ArrayList<String> varNames,
+                       ArrayList<String> varTypes) {
+    this.pptName = pptName;
+    classOf = new int[0];
+    constantOf = new String[0];
+    addVariables(varNames, varTypes);
+  }
+
+  /**
+   * Add the variables declared in a dtrace file that the miner hasn't seen.
+   * @param names The names of the declared variables.
+   * @param types The types of the declared variables.
+   * @return The index in the miner of each declared variable.
+   */
+  public int[] addVariables(ArrayList<String> names, ArrayList<String> types) {
+    int oldVarCnt = varNames.size();
+    int[] indexes = new int[names.size()];
+    for (int i = 0; i < names.size(); ++i) {
+      Integer idx = indexOfVar.get(names.get(i));
+      if (idx == null) {
+        idx = varNames.size();
+        indexOfVar.put(names.get(i), idx);
+        varNames.add(names.get(i));
+        varTypes.add(types.get(i));
+      }
+      indexes[i] = idx;
+    }
+    if (varNames.size() == oldVarCnt) {
+      return indexes;
+    }
+
+    // Only the variables of the same type can be equal. Once there are
+    // samples, a new variable has been constantly the default value.
+    HashMap<String, Integer> leaderOf = new HashMap<>();
+    for (int i = 0; i < oldVarCnt; ++i) {
+      if (classOf[i] == i && (sampleCnt == 0 || constantOf[i] != null)) {
+        leaderOf.put(classKey(varTypes.get(i), constantOf[i]), i);
+      }
+    }
+    classOf = Arrays.copyOf(classOf, varNames.size());
+    constantOf = Arrays.copyOf(constantOf, varNames.size());
+    for (int i = oldVarCnt; i < varNames.size(); ++i) {
+      String type = varTypes.get(i);
+      String value = sampleCnt == 0 ? null : defaultValueOf(type);
+      if (sampleCnt > 0 && value == null) {
+        // The values in the earlier samples are unknown.
+        classOf[i] = i;
+        continue;
+      }
+      Integer leader = leaderOf.putIfAbsent(classKey(type, value), i);
+      classOf[i] = leader == null ? i : leader;
+      if (leader == null) {
+        constantOf[i] = value;
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * Restrict the miner to some of its variables.
+   * @param names The variables to keep, in the order to declare them.
+   * @return A new miner with the same samples, over the kept variables only.
+   */
+  public EqualityMiner retain(List<String> names) {
+    ArrayList<String> types = new ArrayList<>();
+    for (String name : names) {
+      types.add(varTypes.get(indexOfVar.get(name)));
+    }
+    EqualityMiner miner = new EqualityMiner(pptName, new ArrayList<>(names),
+            types);
+    // The first kept variable of each class leads it.
+    int[] newLeaderOf = new int[classOf.length];
+    Arrays.fill(newLeaderOf, -1);
+    for (int i = 0; i < names.size(); ++i) {
+      int leader = classOf[indexOfVar.get(names.get(i))];
+      if (newLeaderOf[leader] == -1) {
+        newLeaderOf[leader] = i;
+      }
+      miner.classOf[i] = newLeaderOf[leader];
+      miner.constantOf[i] = newLeaderOf[leader] == i ? constantOf[leader] : null;
+    }
+    miner.sampleCnt = sampleCnt;
+    return miner;
+  }
+
+  private static String classKey(String type, String constant) {
+    return type + "\n" + constant;
+  }
+
+  /**
+   * Get the value LogMerger writes for a missing variable of the type.
+   * @param type The type of the variable.
+   * @return The default value, or null if the type is unknown.
+   */
+  private static String defaultValueOf(String type) {
+    switch (type) {
+      case "int":
+        return "0";
+      case "float":
+        return "0.0";
+      case "boolean":
+        return "false";
+      case "string":
+        return "\"\"";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Refine the classes with a new sample from a dtrace file. The variables
+   * missing from the file have their default values.
+   * @param indexes The index in the miner of each declared variable, as
+   *                returned by addVariables().
+   * @param values The values of the declared variables.
+   */
+  public void addSample(int[] indexes, String[] values) {
+    String[] allValues = new String[varNames.size()];
+    if (indexes.length != allValues.length) {
+      for (int i = 0; i < allValues.length; ++i) {
+        allValues[i] = defaultValueOf(varTypes.get(i));
+      }
+    }
+    for (int i = 0; i < indexes.length; ++i) {
+      allValues[indexes[i]] = values[i];
+    }
+    addSample(allValues);
+  }
+
+  /**
+   * Refine the classes with a new sample.
+   * @param values The values of the variables, in the declaration order.
+   */
+  public void addSample(String[] values) {
+    // Split each class by the values of its members. The first member with a
+    // new (class, value) pair leads the new class.
+    HashMap<Integer, HashMap<String, Integer>> newLeaders = new HashMap<>();
+    int[] newClassOf = new int[classOf.length];
+    String[] newConstantOf = new String[classOf.length];
+    for (int i = 0; i < classOf.length; ++i) {
+      int oldLeader = classOf[i];
+      HashMap<String, Integer> leaderOfValue = newLeaders.get(oldLeader);
+      if (leaderOfValue == null) {
+        leaderOfValue = new HashMap<>();
+        newLeaders.put(oldLeader, leaderOfValue);
+      }
+      Integer leader = leaderOfValue.putIfAbsent(values[i], i);
+      if (leader == null) {
+        leader = i;
+        // The new class stays constant if its value never changes.
+        if (sampleCnt == 0 || Objects.equals(values[i], constantOf[oldLeader])) {
+          newConstantOf[i] = values[i];
+        }
+      }
+      newClassOf[i] = leader;
+    }
+    classOf = newClassOf;
+    constantOf = newConstantOf;
+    sampleCnt++;
+  }
+
+  public int getSampleCount() {
+    return sampleCnt;
+  }
+
+  /**
+   * Check if the miner has seen enough samples to report its invariants.
+   * @return Whether there are at least Config.MINING_MIN_SAMPLES samples.
+   */
+  public boolean hasEnoughSamples() {
+    return sampleCnt > 0 && sampleCnt >= Config.MINING_MIN_SAMPLES;
+  }
+
+  /**
+   * Get the mined invariants in Daikon's output format.
+   * @return The invariants, one per line, or none if there aren't enough
+   *         samples to justify them.
+   */
+  public ArrayList<String> getInvariants() {
+    ArrayList<String> invs = new ArrayList<>();
+    if (!hasEnoughSamples()) {
+      return invs;
+    }
+    for (int i = 0; i < classOf.length; ++i) {
+      if (classOf[i] != i) {
+        invs.add(varNames.get(classOf[i]) + " == " + varNames.get(i));
+      }
+    }
+    for (int i = 0; i < classOf.length; ++i) {
+      if (classOf[i] == i && constantOf[i] != null) {
+        invs.add(varNames.get(i) + " == " + constantOf[i]);
+      }
+    }
+    return invs;
+  }
+
+  /**
+   * Write the mined invariants the way Daikon prints them.
+   * @param writer The writer to write to.
+   */
+  public void write(Writer writer) throws IOException {
+    writeInvariants(writer, pptName, getInvariants());
+  }
+
+  private static void writeInvariants(Writer writer, String pptName,
+                                      List<String> invs) throws IOException {
+    writer.write("===========================================================================\n");
+    writer.write(pptName + "\n");
+    for (String inv : invs) {
+      writer.write(inv + "\n");
+    }
+  }
+
+  /**
+   * Mine the invariants of a dtrace file.
+   * @param dtrace The dtrace file.
+   * @return The miner holding the result.
+   */
+  public static EqualityMiner mine(File dtrace) throws IOException {
+    return mine(dtrace, null);
+  }
+
+  /**
+   * Mine the invariants of a dtrace file, refining the saved state of its
+   * program point, if any. The refined state is saved back.
+   * @param dtrace The dtrace file.
+   * @param stateDir The directory of the saved states, or null to mine from
+   *                 scratch without saving.
+   * @return The miner holding the result.
+   */
+  public static EqualityMiner mine(File dtrace, File stateDir)
+          throws IOException {
+    try (DtraceReader reader = new DtraceReader(dtrace)) {
+      File stateFile = stateDir == null
+              ? null : stateFileFor(stateDir, reader.getPptName());
+      EqualityMiner miner;
+      int[] indexes;
+      if (stateFile != null && stateFile.exists()) {
+        miner = load(stateFile);
+        indexes = miner.addVariables(reader.getVarNames(), reader.getVarTypes());
+      } else {
+        miner = new EqualityMiner(reader.getPptName(),
+                reader.getVarNames(), reader.getVarTypes());
+        indexes = null;
+      }
+      String[] values;
+      while ((values = reader.nextRecord()) != null) {
+        if (indexes == null) {
+          miner.addSample(values);
+        } else {
+          miner.addSample(indexes, values);
+        }
+      }
+      if (stateFile != null) {
+        miner.save(stateFile);
+      }
+      return miner;
+    }
+  }
+
+  private static File stateFileFor(File stateDir, String pptName) {
+    return new File(stateDir,
+            pptName.replace(":::UNUSED", "").replaceAll("[^\\w.-]", "_") +
+                    ".state");
+  }
+
+  /**
+   * Save the state of the miner. Each variable takes four lines: the name,
+   * the type, the index of its leader, and its constant prefixed with "=",
+   * or "-" if it's not the leader of a constant class.
+   * @param stateFile The file to save to.
+   */
+  public void save(File stateFile) throws IOException {
+    File tmpFile = new File(stateFile.getPath() + ".tmp");
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+      writer.write(pptName + "\n");
+      writer.write(sampleCnt + "\n");
+      writer.write(varNames.size() + "\n");
+      for (int i = 0; i < varNames.size(); ++i) {
+        writer.write(varNames.get(i) + "\n");
+        writer.write(varTypes.get(i) + "\n");
+        writer.write(classOf[i] + "\n");
+        writer.write((constantOf[i] == null ? "-" : "=" + constantOf[i]) + "\n");
+      }
+    }
+    Files.move(tmpFile.toPath(), stateFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Load a miner from its saved state.
+   * @param stateFile The saved state.
+   * @return The miner.
+   */
+  public static EqualityMiner load(File stateFile) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new FileReader(stateFile))) {
+      String pptName = reader.readLine();
+      int sampleCnt = Integer.parseInt(reader.readLine());
+      int varCnt = Integer.parseInt(reader.readLine());
+      ArrayList<String> names = new ArrayList<>();
+      ArrayList<String> types = new ArrayList<>();
+      int[] classOf = new int[varCnt];
+      String[] constantOf = new String[varCnt];
+      for (int i = 0; i < varCnt; ++i) {
+        names.add(reader.readLine());
+        types.add(reader.readLine());
+        classOf[i] = Integer.parseInt(reader.readLine());
+        String constant = reader.readLine();
+        if (constant == null) {
+          throw new IOException("Truncated mining state " + stateFile);
+        }
+        constantOf[i] = constant.startsWith("=") ? constant.substring(1) : null;
+      }
+      EqualityMiner miner = new EqualityMiner(pptName, names, types);
+      miner.classOf = classOf;
+      miner.constantOf = constantOf;
+      miner.sampleCnt = sampleCnt;
+      return miner;
+    }
+  }
+
+  /**
+   * Usage:
+   * EqualityMiner <dtrace-dir> <interesting-vars> [--state <state-dir>]
+   *               [--compare <invariants.txt>]
+   *
+   * Mine the dtrace files into invariants.txt, and select the invariants into
+   * Config.FILE_NAME_SELECTED_INVARIANTS like InvPruner does. With --state,
+   * the dtrace files refine the mining state saved in the directory by the
+   * earlier runs, and the invariants of every program point in the state are
+   * written, including the ones without a new dtrace file. Those come from
+   * the invariants cached in the state directory. With --compare,
+   * also select the invariants out of the given Daikon output, and report the
+   * differences.
+   */
+  public static void main(String[] args) {
+    File stateDir = null;
+    String daikonInvFile = null;
+    boolean badUsage = args.length < 2 || args.length % 2 != 0;
+    for (int i = 2; i + 1 < args.length && !badUsage; i += 2) {
+      if (args[i].equals("--state")) {
+        stateDir = new File(args[i + 1]);
+      } else if (args[i].equals("--compare")) {
+        daikonInvFile = args[i + 1];
+      } else {
+        badUsage = true;
+      }
+    }
+    if (badUsage) {
+      Logger.fatal("Usage: java cofi.mining.EqualityMiner <dtrace-dir> " +
+              "<interesting-vars> [--state <state-dir>] " +
+              "[--compare <invariants.txt>]");
+      System.exit(1);
+    }
+
+    try {
+      InvPruner.loadInterestingVariables(args[1]);
+
+      long startTime = System.currentTimeMillis();
+      File[] dtraces = listSorted(new File(args[0]), ".dtrace", ".dtrace.gz");
+      if (stateDir != null && !stateDir.isDirectory() && !stateDir.mkdirs()) {
+        throw new IOException("Cannot create the state directory " + stateDir);
+      }
+      // The invariants of each program point, including the ones mined in the
+      // earlier runs.
+      TreeMap<String, ArrayList<String>> invsOfPpt = stateDir == null
+              ? new TreeMap<>() : loadMinedInvariants(stateDir);
+      int justifiedPptCnt = 0;
+      for (File dtrace : dtraces) {
+        Logger.info("Mining " + dtrace);
+        EqualityMiner miner = mine(dtrace, stateDir);
+        invsOfPpt.put(miner.pptName, miner.getInvariants());
+        justifiedPptCnt += miner.hasEnoughSamples() ? 1 : 0;
+      }
+      writeMinedInvariants(invsOfPpt,
+              new File(Config.FILE_NAME_MINED_INVARIANTS));
+      if (stateDir != null) {
+        writeMinedInvariants(invsOfPpt,
+                new File(stateDir, MINED_INVARIANTS_FILE_NAME));
+        Logger.info("The mining state holds " + invsOfPpt.size() +
+                " program points.");
+      }
+      Logger.info((dtraces.length - justifiedPptCnt) + " of the " +
+              dtraces.length + " program points mined have fewer than " +
+              Config.MINING_MIN_SAMPLES + " samples, and report no invariants.");
+
+      HashSet<Invariant> invs = new HashSet<>();
+      for (ArrayList<String> pptInvs : invsOfPpt.values()) {
+        for (String invStr : pptInvs) {
+          Invariant inv = Invariant.parse(invStr);
+          if (inv != null) {
+            invs.add(inv);
+          }
+        }
+      }
+      Logger.info("Mined " + invs.size() + " unique invariants out of " +
+              dtraces.length + " dtrace files in " +
+              (System.currentTimeMillis() - startTime) + " ms.");
+
+      HashSet<VariableEquality> candidates = InvPruner.selectCandidates(invs);
+      InvPruner.writeInvsToFile(InvPruner.dedupModuloNodeRenaming(candidates),
+              Config.FILE_NAME_SELECTED_INVARIANTS);
+
+      if (daikonInvFile != null) {
+        compare(candidates, daikonInvFile);
+      }
+    } catch (Throwable t) {
+      Logger.fatal("Unexpected exception when mining invariants.", t);
+      System.exit(1);
+    }
+  }
+
+  private static File[] listSorted(File dir, String... suffixes)
+          throws IOException {
+    File[] files = dir.listFiles((d, name) ->
+            Arrays.stream(suffixes).anyMatch(name::endsWith));
+    if (files == null) {
+      throw new IOException("Cannot list the files in " + dir);
+    }
+    Arrays.sort(files, Comparator.comparing(File::getName));
+    return files;
+  }
+
+  /**
+   * Load the invariants of the program points in the mining state. If they
+   * have not been cached yet, they are rebuilt from the saved states.
+   * @param stateDir The directory of the saved states.
+   * @return The invariants of each program point, by its name.
+   */
+  private static TreeMap<String, ArrayList<String>> loadMinedInvariants(
+          File stateDir) throws IOException {
+    TreeMap<String, ArrayList<String>> invsOfPpt = new TreeMap<>();
+    File invFile = new File(stateDir, MINED_INVARIANTS_FILE_NAME);
+    if (!invFile.exists()) {
+      for (File state : listSorted(stateDir, ".state")) {
+        EqualityMiner miner = load(state);
+        invsOfPpt.put(miner.pptName, miner.getInvariants());
+      }
+      return invsOfPpt;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(invFile))) {
+      ArrayList<String> pptInvs = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("=====")) {
+          String pptName = reader.readLine();
+          if (pptName == null) {
+            throw new IOException("Truncated invariant file " + invFile);
+          }
+          pptInvs = new ArrayList<>();
+          invsOfPpt.put(pptName, pptInvs);
+        } else if (pptInvs != null && !line.isEmpty()) {
+          pptInvs.add(line);
+        }
+      }
+    }
+    return invsOfPpt;
+  }
+
+  /**
+   * Write the invariants of the program points the way Daikon prints them.
+   * @param invsOfPpt The invariants of each program point, by its name.
+   * @param file The file to write to.
+   */
+  private static void writeMinedInvariants(
+          TreeMap<String, ArrayList<String>> invsOfPpt, File file)
+          throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+      writer.write("\n");
+      for (Map.Entry<String, ArrayList<String>> entry : invsOfPpt.entrySet()) {
+        writeInvariants(writer, entry.getKey(), entry.getValue());
+      }
+    }
+    Files.move(tmpFile.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Write the invariants of the miner, and collect the parsed ones.
+   */
+  void collect(BufferedWriter writer, HashSet<Invariant> invs)
+          throws IOException {
+    write(writer);
+    for (String invStr : getInvariants()) {
+      Invariant inv = Invariant.parse(invStr);
+      if (inv != null) {
+        invs.add(inv);
+      }
+    }
+  }
+
+  /**
+   * Report the differences between the invariants selected from our results
+   * and the ones selected from Daikon's.
+   * @param ours The invariants selected from our results.
+   * @param daikonInvFile The invariant file written by Daikon.
+   */
+  private static void compare(HashSet<VariableEquality> ours,
+                              String daikonInvFile) throws IOException {
+    HashSet<VariableEquality> theirs = InvPruner.selectCandidates(
+            InvPruner.loadInvsFromFile(daikonInvFile));
+    HashSet<VariableEquality> common = new HashSet<>(ours);
+    common.retainAll(theirs);
+    Logger.info(common.size() + " invariants are selected from both results.");
+
+    HashSet<VariableEquality> onlyOurs = new HashSet<>(ours);
+    onlyOurs.removeAll(theirs);
+    Logger.info(onlyOurs.size() + " invariants are only selected from ours:");
+    for (VariableEquality inv : onlyOurs) {
+      Logger.info("  " + inv);
+    }
+
+    HashSet<VariableEquality> onlyTheirs = new HashSet<>(theirs);
+    onlyTheirs.removeAll(ours);
+    Logger.info(onlyTheirs.size() + " invariants are only selected from " +
+            "Daikon's:");
+    for (VariableEquality inv : onlyTheirs) {
+      Logger.info("  " + inv);
+    }
+  }
+}
@@ -18,6 +18,8 @@ package cofi.mining;
 import cofi.invariant.Invariant;
 import cofi.invariant.VariableEquality;
 import cofi.util.Config;
+import cofi.util.StrOps;
+import cofi.variable.AccessPathMatcher;
 import cofi.variable.InterestingVariable;
 import cofi.variable.Variable;
 import cofi.util.Logger;
@@ -28,13 +30,21 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.TreeMap;
 
 public class InvPruner {
   private static String invFileName = null;
-  private static HashSet<InterestingVariable> interestingVariables = new HashSet<>();
+  // The metadata of the interesting variables, by their access paths.
+  private static AccessPathMatcher<String> metadataOfPaths =
+          new AccessPathMatcher<>();
 
   /**
    * Load invariants from the specified invariant file and prune them.
@@ -46,26 +56,16 @@ public class InvPruner {
       HashSet<Invariant> invs = loadInvsFromFile(invFileName);
       Logger.info("Loaded " + invs.size() + " unique invariants.");
 
-      // Derive equality invariants.
-      HashSet<Invariant> eqInvs = deriveEqualityInvs(invs);
-      Logger.info("There're " + eqInvs.size() + " invariants after deriving " +
-              "new equality invariants.");
+      // Select the candidate invariants.
+      HashSet<VariableEquality> sameMetadataInvs = selectCandidates(invs);
 
-      // Select invariants with two variables.
-      HashSet<VariableEquality> twoVarInvs = getTwoVarInvs(eqInvs);
-      Logger.info("There're " + twoVarInvs.size() + " invariants with two" +
-              " variables.");
+      // Only keep a few invariants out of the ones that are the same up to a
+      // renaming of the nodes.
+      HashSet<VariableEquality> dedupedInvs = dedupModuloNodeRenaming(sameMetadataInvs);
+      Logger.info("There're " + dedupedInvs.size() + " invariants after " +
+              "deduplicating the ones equivalent under node renaming.");
 
-      // Get the invariants that involve two nodes, i.e., global invariants.
-      HashSet<VariableEquality> globalInvs = getGlobalInvariants(twoVarInvs);
-      Logger.info("There're " + globalInvs.size() + " global invariants.");
-
-      // Only keep invariants on the same metadata.
-      HashSet<VariableEquality> sameMetadataInvs = keepSameMetadataInvs(globalInvs);
-      Logger.info("There're " + sameMetadataInvs.size() + " invariants on " +
-              "the same metadata.");
-
-      writeInvsToFile(sameMetadataInvs, Config.FILE_NAME_SELECTED_INVARIANTS);
+      writeInvsToFile(dedupedInvs, Config.FILE_NAME_SELECTED_INVARIANTS);
     } catch (Throwable t) {
       Logger.fatal("Unexpected exception when ranking invariants.");
       t.printStackTrace(System.err);
@@ -73,6 +73,35 @@ public class InvPruner {
     }
   }
 
+  /**
+   * Select the candidate invariants to test, i.e., the equalities between two
+   * variables on different nodes with the same metadata, either mined or
+   * derived from the mined ones.
+   * @param invs The mined invariants.
+   * @return The candidate invariants.
+   */
+  static HashSet<VariableEquality> selectCandidates(HashSet<Invariant> invs) {
+    // Derive equality invariants.
+    HashSet<Invariant> eqInvs = deriveEqualityInvs(invs);
+    Logger.info("There're " + eqInvs.size() + " invariants after deriving " +
+            "new equality invariants.");
+
+    // Select invariants with two variables.
+    HashSet<VariableEquality> twoVarInvs = getTwoVarInvs(eqInvs);
+    Logger.info("There're " + twoVarInvs.size() + " invariants with two" +
+            " variables.");
+
+    // Get the invariants that involve two nodes, i.e., global invariants.
+    HashSet<VariableEquality> globalInvs = getGlobalInvariants(twoVarInvs);
+    Logger.info("There're " + globalInvs.size() + " global invariants.");
+
+    // Only keep invariants on the same metadata.
+    HashSet<VariableEquality> sameMetadataInvs = keepSameMetadataInvs(globalInvs);
+    Logger.info("There're " + sameMetadataInvs.size() + " invariants on " +
+            "the same metadata.");
+    return sameMetadataInvs;
+  }
+
   /**
    * Keep invariants that involve variables of the same metadata.
    * @param invariants The set of invariants to analyze.
@@ -82,23 +111,16 @@ public class InvPruner {
   keepSameMetadataInvs(HashSet<VariableEquality> invariants) {
     HashSet<VariableEquality> sameMetaInvs = new HashSet<>();
     for (VariableEquality inv : invariants) {
-      String metadata1 = null;
       // Get the metadata of the first variable.
-      for (InterestingVariable iVar : interestingVariables) {
-        if (iVar.getAccessPath().includes(inv.varName1)) {
-          metadata1 = iVar.getMetadata();
-          break;
-        }
-      }
-      if (metadata1 == null) {
+      ArrayList<String> metadata1 = metadataOfPaths.match(inv.varName1);
+      if (metadata1.isEmpty()) {
         continue;
       }
-      // Get the metadata of the second variable.
-      for (InterestingVariable iVar : interestingVariables) {
-        if (iVar.getAccessPath().includes(inv.varName2)) {
-          if (metadata1.equals(iVar.getMetadata())) {
-            sameMetaInvs.add(inv);
-          }
+      // Check the metadata of the second variable.
+      for (String metadata2 : metadataOfPaths.match(inv.varName2)) {
+        if (metadata1.contains(metadata2)) {
+          sameMetaInvs.add(inv);
+          break;
         }
       }
     }
@@ -106,6 +128,79 @@ public class InvPruner {
     return sameMetaInvs;
   }
 
+  /**
+   * Group the invariants that are the same up to a renaming of the nodes, and
+   * keep at most Config.MAX_INVARIANTS_PER_CLASS invariants out of each group.
+   * For example, "nd1-X.get(3) == nd2-X.get(3)" and
+   * "nd2-X.get(1) == nd3-X.get(1)" are in the same group. The size of each
+   * group is written to Config.FILE_NAME_INVARIANT_CLASSES.
+   * @param invariants The invariants to deduplicate.
+   * @return The selected invariants.
+   */
+  static HashSet<VariableEquality>
+  dedupModuloNodeRenaming(HashSet<VariableEquality> invariants) {
+    // Get all the nodes. Only their IDs will be renamed.
+    HashSet<String> nodes = new HashSet<>();
+    for (VariableEquality inv : invariants) {
+      nodes.addAll(inv.getNodes());
+    }
+
+    // Group the invariants by their canonical forms.
+    TreeMap<String, ArrayList<VariableEquality>> classes = new TreeMap<>();
+    for (VariableEquality inv : invariants) {
+      String form1 = getCanonicalForm(inv.varName1 + " == " + inv.varName2, nodes);
+      String form2 = getCanonicalForm(inv.varName2 + " == " + inv.varName1, nodes);
+      String form = form1.compareTo(form2) <= 0 ? form1 : form2;
+      if (!classes.containsKey(form)) {
+        classes.put(form, new ArrayList<>());
+      }
+      classes.get(form).add(inv);
+    }
+
+    // Select the first few invariants of each group.
+    HashSet<VariableEquality> selectedInvs = new HashSet<>();
+    Logger.info("Writing invariant groups to file " + Config.FILE_NAME_INVARIANT_CLASSES);
+    try (BufferedWriter writer = new BufferedWriter(
+            new FileWriter(Config.FILE_NAME_INVARIANT_CLASSES))) {
+      for (ArrayList<VariableEquality> invClass : classes.values()) {
+        invClass.sort(Comparator.comparing(VariableEquality::toString));
+        int limit = Config.MAX_INVARIANTS_PER_CLASS > 0
+                ? Math.min(Config.MAX_INVARIANTS_PER_CLASS, invClass.size())
+                : invClass.size();
+        selectedInvs.addAll(invClass.subList(0, limit));
+        writer.write(invClass.size() + " " + invClass.get(0) + "\n");
+      }
+    } catch (IOException ioe) {
+      Logger.error("Failed to write invariant groups to file " +
+              Config.FILE_NAME_INVARIANT_CLASSES);
+      ioe.printStackTrace(System.err);
+      System.exit(1);
+    }
+    Logger.info("Found " + classes.size() + " groups of invariants that are " +
+            "equivalent under node renaming.");
+
+    return selectedInvs;
+  }
+
+  /**
+   * Get the canonical form of the given string under node renaming. The nodes
+   * are renamed by the order they first appear in the string, so two strings
+   * that are the same up to a renaming of the nodes have the same canonical
+   * form.
+   * @param str The string to work on.
+   * @param nodes The IDs of all the nodes.
+   * @return The canonical form of the given string.
+   */
+  private static String getCanonicalForm(String str, HashSet<String> nodes) {
+    HashMap<String, String> renaming = new HashMap<>();
+    for (String nodeID : StrOps.getNodeIDsInOrder(str)) {
+      if (nodes.contains(nodeID)) {
+        renaming.put(nodeID, "nd<" + renaming.size() + ">");
+      }
+    }
+    return StrOps.renameNodeIDs(str, renaming);
+  }
+
   private static void init(String[] args) {
     if (args.length != 2) {
       Logger.error("Incorrect usage.");
@@ -115,16 +210,25 @@ public class InvPruner {
     }
 
     invFileName = args[0];
+    loadInterestingVariables(args[1]);
+  }
 
-    try (BufferedReader reader = new BufferedReader(new FileReader(args[1]))) {
+  /**
+   * Load the interesting variables, whose metadata is used to select the
+   * invariants.
+   * @param fileName The file of the interesting variables.
+   */
+  static void loadInterestingVariables(String fileName) {
+    try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
       String newLine;
       while ((newLine = reader.readLine()) != null) {
         newLine = newLine.trim();
         InterestingVariable newVar = new InterestingVariable(newLine);
-        interestingVariables.add(newVar);
+        metadataOfPaths.add(newVar.getAccessPath().toString(),
+                newVar.getMetadata());
       }
     } catch (Throwable t) {
-      Logger.error("Failed to load interesting variables from file " + args[1]);
+      Logger.error("Failed to load interesting variables from file " + fileName);
       System.exit(1);
     }
   }
@@ -164,48 +268,65 @@ public class InvPruner {
   /**
    * Recover the missing equality invariants. For example, if we have two
    * invariants, a == b and b == c, then we can derive a == c.
-   * recover
-   * @param invs
-   * @return
+   *
+   * The access paths and the values are interned, and merged into equivalence
+   * classes with a union-find in a single pass over the invariants. For each
+   * class, only the equalities between variables on different nodes are
+   * derived, as the others are dropped by getGlobalInvariants() anyway.
+   * @param invs The mined invariants.
+   * @return The mined invariants and the derived ones.
    */
-  private static HashSet<Invariant>
+  static HashSet<Invariant>
   deriveEqualityInvs(HashSet<Invariant> invs) {
-    HashSet<Invariant> expandedInvs = new HashSet<>();
-    // Get the involved access paths and values.
-    HashMap<String, HashSet<String>> id2EquivalentIDs = new HashMap<>();
+    // Intern the involved access paths and values.
+    HashMap<String, Integer> idxOfId = new HashMap<>();
+    ArrayList<String> ids = new ArrayList<>();
+    UnionFind classes = new UnionFind();
     for (Invariant inv : invs) {
+      int first = -1;
       for (String id : inv.getVarsAndVals()) {
-        if (!id2EquivalentIDs.keySet().contains(id)) {
-          id2EquivalentIDs.put(id, new HashSet<>());
+        Integer idx = idxOfId.get(id);
+        if (idx == null) {
+          idx = ids.size();
+          idxOfId.put(id, idx);
+          ids.add(id);
+          classes.add();
+        }
+        // Since ID1 == ID2, ID1's equivalent IDs also equal to ID2's.
+        if (first < 0) {
+          first = idx;
+        } else {
+          classes.union(first, idx);
         }
       }
     }
 
-    // Keep deriving equivalent IDs.
-    boolean foundNewEq = true;
-    while (foundNewEq) {
-      foundNewEq = false;
-      for (Invariant inv : invs) {
-        // Since ID1 == ID2, so ID1's equivalent IDs also equal to ID2's
-        // equivalent IDs.
-        ArrayList<String> vars = new ArrayList<>(inv.getVarsAndVals());
-        String id1 = vars.get(0);
-        String id2 = vars.get(1);
-        HashSet<String> eq1 = id2EquivalentIDs.get(id1);
-        HashSet<String> eq2 = id2EquivalentIDs.get(id2);
-        if (eq1.add(id2)) foundNewEq = true;
-        if (eq1.addAll(eq2)) foundNewEq = true;
-        if (eq2.add(id1)) foundNewEq = true;
-        if (eq2.addAll(eq1)) foundNewEq = true;
+    // Group the variables of each class by their nodes. The constants are
+    // left out.
+    HashMap<Integer, HashMap<String, ArrayList<String>>> nodesOfClass =
+            new HashMap<>();
+    for (int idx = 0; idx < ids.size(); ++idx) {
+      String id = ids.get(idx);
+      if (!id.startsWith("nd")) {
+        continue;
       }
+      int hyphenIdx = id.indexOf('-', 3);
+      String node = hyphenIdx < 0 ? id : id.substring(0, hyphenIdx);
+      nodesOfClass.computeIfAbsent(classes.find(idx), k -> new HashMap<>())
+              .computeIfAbsent(node, k -> new ArrayList<>()).add(id);
     }
 
     // Record the original invariants and the derived invariants.
-    expandedInvs.addAll(invs);
-    for (String id1 : id2EquivalentIDs.keySet()) {
-      for (String id2 : id2EquivalentIDs.get(id1)) {
-        if (id1.startsWith("nd") && id2.startsWith("nd")) {
-          expandedInvs.add(new VariableEquality(id1, id2));
+    HashSet<Invariant> expandedInvs = new HashSet<>(invs);
+    for (HashMap<String, ArrayList<String>> nodes : nodesOfClass.values()) {
+      ArrayList<ArrayList<String>> varsOfNodes = new ArrayList<>(nodes.values());
+      for (int i = 0; i < varsOfNodes.size(); ++i) {
+        for (int j = i + 1; j < varsOfNodes.size(); ++j) {
+          for (String id1 : varsOfNodes.get(i)) {
+            for (String id2 : varsOfNodes.get(j)) {
+              expandedInvs.add(new VariableEquality(id1, id2));
+            }
+          }
         }
       }
     }
@@ -213,6 +334,48 @@ public class InvPruner {
     return expandedInvs;
   }
 
+  /**
+   * A union-find over the interned IDs, with path halving and union by size.
+   */
+  private static class UnionFind {
+    private int[] parent = new int[16];
+    private int[] size = new int[16];
+    private int cnt = 0;
+
+    void add() {
+      if (cnt == parent.length) {
+        parent = Arrays.copyOf(parent, cnt * 2);
+        size = Arrays.copyOf(size, cnt * 2);
+      }
+      parent[cnt] = cnt;
+      size[cnt] = 1;
+      cnt++;
+    }
+
+    int find(int x) {
+      while (parent[x] != x) {
+        parent[x] = parent[parent[x]];
+        x = parent[x];
+      }
+      return x;
+    }
+
+    void union(int x, int y) {
+      x = find(x);
+      y = find(y);
+      if (x == y) {
+        return;
+      }
+      if (size[x] < size[y]) {
+        int tmp = x;
+        x = y;
+        y = tmp;
+      }
+      parent[y] = x;
+      size[x] += size[y];
+    }
+  }
+
   /**
    * Select invariants with two variables.
    * @param invs A set of invariants to select.
@@ -244,14 +407,21 @@ public class InvPruner {
    * @param invs The invariants to write.
    * @param fileName The file to write to.
    */
-  private static void
+  static void
   writeInvsToFile(HashSet<VariableEquality> invs, String fileName) {
     Logger.info("Writing invariants to file " + fileName);
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-      for (VariableEquality inv : invs) {
-        writer.write(inv.toString());
-        writer.write("\n");
+    // Replace the file at once, so that the file is never seen half-written
+    // when it's updated by later runs.
+    File tmpFile = new File(fileName + ".tmp");
+    try {
+      try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+        for (VariableEquality inv : invs) {
+          writer.write(inv.toString());
+          writer.write("\n");
+        }
       }
+      Files.move(tmpFile.toPath(), Paths.get(fileName),
+              StandardCopyOption.REPLACE_EXISTING);
     } catch (IOException ioe) {
       Logger.error("Failed to write invariants to file " + fileName);
       ioe.printStackTrace(System.err);
@@ -291,7 +461,7 @@ public class InvPruner {
    * @throws IOException If anything goes wrong when loading invariants..
    * @return A set of unique invariants.
    */
-  private static HashSet<Invariant>
+  static HashSet<Invariant>
   loadInvsFromFile(String invFileName) throws IOException {
     HashSet<Invariant> invs = new HashSet<>();
     File invFile = new File(invFileName);
@@ -15,20 +15,31 @@
  */
 package cofi.mining;
 
+import cofi.util.Config;
 import cofi.util.Logger;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.regex.Matcher;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
  * Merge the profiling logs into dtrace files.
  */
 public class LogMerger {
-	private static final String kLogFileNameRex = "td\\d+_nd-?\\d+.txt";
+	private static final String kLogFileNameRex = "td\\d+_nd-?\\d+\\.(txt|bin)";
 	private static HashMap<String, HashSet<DumpPoint>> allSenderDumpPoints =
 					new HashMap<>();
 	private static HashMap<String, HashSet<DumpPoint>> allReceiverDumpPoints =
@@ -36,16 +47,36 @@ public class LogMerger {
 	private static int nullMsgCnt = 0;
 	private static int maxDpCnt = 0;
 	private static int maxVarCnt = 0;
+	private static int varCnt = 0;
+	private static int pdpCnt = 0;
 	private static HashSet<String> pdpIds = new HashSet<>();
+	// The paired dump points to write into dtrace files directly.
+	private static PairedDumpPointStore pdpStore = new PairedDumpPointStore(
+					new File(Config.DIRECTORY_DTRACE_SPILLS));
+	// Find out the variables that never change.
+	private static ConstantVariableTracker constantTracker =
+					new ConstantVariableTracker();
+	// Decide which paired dump point instances to keep.
+	private static Sampler sampler = new Sampler(
+					Sampler.Mode.valueOf(Config.SAMPLING_MODE),
+					LogMerger::writePairedDumpPoint);
 
 	/**
 	 * Generate the dtrace files using the logs in the specified directory.
 	 */
 	public static void run(String logDir) {
 		try {
-			loadLogs(logDir);
-			mergeLogs();
-			daikonizeLogs();
+			if (Config.STREAMING_MERGE) {
+				streamAndMergeLogs(logDir);
+			} else {
+				loadLogs(logDir);
+				mergeLogs();
+			}
+			if (Config.DIRECT_DTRACE_OUTPUT) {
+				pdpStore.writeDtraces(new File("dtraces"), Config.GZIP_DTRACES);
+			} else {
+				daikonizeLogs();
+			}
 		} catch (Throwable t) {
 			Logger.fatal("Unexpected exception when merging logs.");
 			t.printStackTrace(System.err);
@@ -54,25 +85,71 @@ public class LogMerger {
 	}
 
 	/**
-	 * Load profile logs in the specified directory.
+	 * List the profiling logs in the specified directory. Their names are in
+	 * the format of td\d+_nd\d+.txt, or td\d+_nd\d+.bin for the binary ones.
+	 * If a log is in both formats, only the binary one is listed.
+	 * @param logDirName The directory of the profiling logs.
+	 * @return The profiling logs, sorted by their names.
 	 */
-	private static void loadLogs(String logDirName) throws IOException {
-		// Get a list of log files. Their names are in the format of td\d+_nd\d+.txt
+	static ArrayList<File> listLogFiles(String logDirName) throws IOException {
+		File[] files = new File(logDirName).listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list the profiling logs in " + logDirName);
+		}
 		Pattern pattern = Pattern.compile(kLogFileNameRex);
-		File logDir = new File(logDirName);
-		File[] files = logDir.listFiles();
-		int logFileCnt = 0;
+		HashSet<String> names = new HashSet<>();
+		for (File file : files) {
+			names.add(file.getName());
+		}
+		ArrayList<File> logFiles = new ArrayList<>();
 		for (File file : files) {
 			String fileName = file.getName();
-			Matcher matcher = pattern.matcher(fileName);
-			if (!matcher.find()) {
+			if (!pattern.matcher(fileName).matches()) {
 				continue;
 			}
+			if (fileName.endsWith(".txt") && names.contains(
+							fileName.substring(0, fileName.length() - 4) + ".bin")) {
+				continue;
+			}
+			logFiles.add(file);
+		}
+		logFiles.sort(Comparator.comparing(File::getName));
+		return logFiles;
+	}
 
-			logFileCnt++;
-			loadLogsFromFile(file);
+	/**
+	 * Load profile logs in the specified directory.
+	 */
+	private static void loadLogs(String logDirName) throws IOException {
+		ArrayList<File> files = listLogFiles(logDirName);
+		int threadCnt = Config.MERGE_LOADING_THREADS > 0
+						? Config.MERGE_LOADING_THREADS
+						: Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threadCnt);
+		try {
+			// Parse the files in parallel, but combine them in the order of the
+			// file names, so that the same duplicate message is reported every time.
+			ArrayList<Future<LogIndex>> indexes = new ArrayList<>();
+			for (File file : files) {
+				indexes.add(pool.submit(() -> loadLogsFromFile(file)));
+			}
+			for (Future<LogIndex> index : indexes) {
+				combine(index.get());
+			}
+		} catch (InterruptedException ie) {
+			throw new IOException("Interrupted when loading the logs.", ie);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) {
+				throw (IOException) ee.getCause();
+			}
+			throw new RuntimeException(ee.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		Logger.info("Found " + files.size() + " log files.");
+		if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+			constantTracker.decide();
 		}
-		Logger.info("Found " + logFileCnt + " log files.");
 
 		// Make sure that
 		// 1. Some messages are received;
@@ -93,153 +170,143 @@ public class LogMerger {
 						" message receiving events.");
 	}
 
+	/**
+	 * The send and receive events loaded from a single profiling log. It is
+	 * only touched by the thread loading the log, until it is combined into
+	 * the global maps.
+	 */
+	private static class LogIndex {
+		// The sent or received messages, in the order of the log.
+		final ArrayList<String> actions = new ArrayList<>();
+		final ArrayList<String> msgIds = new ArrayList<>();
+		final ArrayList<HashSet<DumpPoint>> dumpPoints = new ArrayList<>();
+		// The first message sent or received twice in this log, if any. The
+		// loading stops there.
+		String duplicateError = null;
+		int nullMsgCnt = 0;
+		int maxDpCnt = 0;
+		int maxVarCnt = 0;
+		// The variables that never change in this log.
+		final ConstantVariableTracker constantTracker =
+						new ConstantVariableTracker();
+	}
+
+	/**
+	 * Combine the events of a profiling log into the global maps. The logs
+	 * must be combined in a fixed order, so that the same duplicate is
+	 * reported every time.
+	 */
+	private static void combine(LogIndex index) {
+		for (int i = 0; i < index.msgIds.size(); ++i) {
+			String messageId = index.msgIds.get(i);
+			if (index.actions.get(i).equals("send")) {
+				if (allSenderDumpPoints.putIfAbsent(
+								messageId, index.dumpPoints.get(i)) != null) {
+					throw new RuntimeException("Double sending message " + messageId);
+				}
+			} else {
+				if (allReceiverDumpPoints.putIfAbsent(
+								messageId, index.dumpPoints.get(i)) != null) {
+					throw new RuntimeException("Double receiving message " + messageId);
+				}
+			}
+		}
+		if (index.duplicateError != null) {
+			throw new RuntimeException(index.duplicateError);
+		}
+		if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+			constantTracker.merge(index.constantTracker);
+		}
+		nullMsgCnt += index.nullMsgCnt;
+		maxDpCnt = Math.max(maxDpCnt, index.maxDpCnt);
+		maxVarCnt = Math.max(maxVarCnt, index.maxVarCnt);
+	}
+
 	/**
 	 * Load profile logs from the specified file.
+	 * @return The send and receive events in the file.
 	 */
-	private static void loadLogsFromFile(File logFile) throws IOException {
+	private static LogIndex loadLogsFromFile(File logFile) throws IOException {
 	  Logger.debug("Loading logs from file " + logFile);
-		try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+		LogIndex index = new LogIndex();
+		try (ProfilingLogReader reader = ProfilingLogReader.open(logFile)) {
 			// Maintain a reference for the init dump point and each receiver-side
-			// dump point. Later this function will remove the variables that are
-			// never changed.
+			// dump point. The variables that never change are tracked by
+			// index.constantTracker.
 			ArrayList<DumpPoint> regularDumpPoints = new ArrayList<>();
 			DumpPoint initDumpPoint = null;
+			HashSet<String> sentMsgIds = new HashSet<>();
+			HashSet<String> receivedMsgIds = new HashSet<>();
 
-			// Load the content
-			String action;
 			// Each iteration, this loop loads all the dump points for a given action.
-			while ((action = reader.readLine()) != null) {
+			ProfilingLogReader.Entry entry;
+			while ((entry = reader.next()) != null) {
 				// Load the message ID and make sure its unique,
 				// i.e., sent at most once and received at most once.
-				String messageId = reader.readLine();
+				String action = entry.action;
+				String messageId = entry.msgId;
+				HashSet<DumpPoint> actionDumpPoints = null;
 				if (!messageId.equals("null")) {
 					if (action.equals("send")) {
-						if (allSenderDumpPoints.containsKey(messageId)) {
-							throw new RuntimeException("Double sending message " + messageId);
+						if (!sentMsgIds.add(messageId)) {
+							index.duplicateError = "Double sending message " + messageId;
+							break;
 						}
-						allSenderDumpPoints.put(messageId, new HashSet<DumpPoint>());
+						actionDumpPoints = new HashSet<>();
 					} else if (action.equals("receive")) {
-						if (allReceiverDumpPoints.containsKey(messageId)) {
-							throw new RuntimeException("Double receiving message " + messageId);
+						if (!receivedMsgIds.add(messageId)) {
+							index.duplicateError = "Double receiving message " + messageId;
+							break;
 						}
-						allReceiverDumpPoints.put(messageId, new HashSet<DumpPoint>());
+						actionDumpPoints = new HashSet<>();
 					} else if (action.equals("init")) {
 						// No-op
 					}
+					if (actionDumpPoints != null) {
+						index.actions.add(action);
+						index.msgIds.add(messageId);
+						index.dumpPoints.add(actionDumpPoints);
+					}
 				} else {
-					nullMsgCnt++;
+					index.nullMsgCnt++;
 				}
 
-				// Load the dump points associated with this action.
-				int dpCnt = Integer.parseInt(reader.readLine());
-				for (int dpIdx = 0; dpIdx < dpCnt; ++dpIdx) {
-					String dpId = reader.readLine();
-					DumpPoint dp = new DumpPoint(dpId);
-
-					// Load the variables dumped at this dump point.
-					int varCnt = Integer.parseInt(reader.readLine());
-					for (int varIdx = 0; varIdx < varCnt; ++varIdx) {
-						String varName = reader.readLine();
-						String varType = reader.readLine();
-						String varValue = reader.readLine();
-
-						// Hack for Cassandra.
-						if (varName.endsWith(").value")
-										&& !varName.endsWith("(-1839152142).value")
-										&& !varName.endsWith("(1816706834).value")) {
-							continue;
-						} else if (varName.contains("keyspaceInstances.get(")
-										&& !varName.contains("keyspaceInstances.get(-1422455755)")) {
-							continue;
-						}
-
-						dp.addVar(varName, varType, varValue);
-					}
-
+				for (DumpPoint dp : entry.dumpPoints) {
 					// Record that the dump point is with this action.
 					if (!messageId.equals("null")) {
-						if (action.equals("send")) {
-							allSenderDumpPoints.get(messageId).add(dp);
-							regularDumpPoints.add(dp);
-						} else if (action.equals("receive")) {
-							allReceiverDumpPoints.get(messageId).add(dp);
+						if (actionDumpPoints != null) {
+							actionDumpPoints.add(dp);
 							regularDumpPoints.add(dp);
 						} else if (action.equals("init")) {
 							initDumpPoint = dp;
 						}
+						if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+							index.constantTracker.add(dp);
+						}
 					}
 
 					// For debug only
-					if (varCnt > maxVarCnt) {
-						maxVarCnt = varCnt;
+					if (dp.getVars().size() > index.maxVarCnt) {
+						index.maxVarCnt = dp.getVars().size();
 					}
 				}
 
 				// For debug only
-				if (dpCnt > maxDpCnt) {
-					maxDpCnt = dpCnt;
+				if (entry.dumpPoints.size() > index.maxDpCnt) {
+					index.maxDpCnt = entry.dumpPoints.size();
 				}
-
-				// Read the tail empty line.
-				reader.readLine();
 			}
 
 			// If this thread did not handle any method, we will not have the init dump point.
 			if (initDumpPoint == null) {
-				return;
+				return index;
 			}
 
 			Logger.debug("File " + logFile.getName() + " has an initial dump point.");
 			Logger.debug("There are " + initDumpPoint.getVars().size() + " variables in the initial dump point.");
 			Logger.debug("File " + logFile.getName() + " has " + regularDumpPoints.size() + " regular dump points.");
-			/*
-			int unchangedVarCount = 0;
-			int removedVarCount = 0;
-			// Remove from the receiver dump points the variables that are never changed.
-			for (DumpPoint.Variable initVar : initDumpPoint.getVars()) {
-				boolean varChanged = false;
-				for (DumpPoint dp : regularDumpPoints) {
-					// Go over each variable to see if the initial variable is changed in this dump point.
-					for (DumpPoint.Variable laterVar : dp.getVars()) {
-						// If the variable has the same name but different value, the
-						// variable in the initial dump point is changed.
-						if (initVar.name.equals(laterVar.name)) {
-							if (!initVar.value.equals(laterVar.value)) {
-								varChanged = true;
-								break;
-							}
-						}
-						// Otherwise, if one variable's name is the prefix of the other's,
-						// the variable is changed.
-						else if (initVar.name.startsWith(laterVar.name)
-										|| laterVar.name.startsWith(initVar.name)) {
-							varChanged = true;
-							break;
-						}
-					}
-
-					// If the variable is changed, do not check the remaining dump points.
-					// Leave it in the dump point so that we can mine invariants on it.
-					if (varChanged) {
-						break;
-					}
-				}
-
-				// If this variable is never changed in any dump points, remove it to
-				// save invariant mining time.
-				if (!varChanged) {
-					unchangedVarCount++;
-					for (DumpPoint dp : regularDumpPoints) {
-						if (dp.removeVar(initVar.name)) {
-							removedVarCount++;
-						}
-					}
-				}
-			}
-			Logger.debug(unchangedVarCount + " variables are never changed.");
-			Logger.debug("Removed " + removedVarCount + " variables from file " + logFile.getName() + ".");
-			*/
 		}
+		return index;
 	}
 
 	/**
@@ -298,8 +365,6 @@ public class LogMerger {
 	 */
 	private static void mergeLogs() throws IOException {
 		int msgCnt = 0;
-		int varCnt = 0;
-		int pdpCnt = 0;
 		for (String msgId : allReceiverDumpPoints.keySet()) {
 			Logger.debug("Working on message " + ++msgCnt);
 			HashSet<DumpPoint> receiverDumpPoints = allReceiverDumpPoints.get(msgId);
@@ -317,36 +382,81 @@ public class LogMerger {
 			// Go over each sender-receiver pair to create the paired dump points.
 			for (DumpPoint rdp : receiverDumpPoints) {
 				for (DumpPoint sdp : senderDumpPoints) {
-					String pairedDumpPointId = sdp.id + "_and_" + rdp.id;
-					pdpIds.add(pairedDumpPointId);
-					DumpPoint pdp = new DumpPoint(pairedDumpPointId);
+					emitPairedDumpPoint(sdp, rdp);
+				}
+			}
+		}
 
-					appendNewDumpPointDelimiterToPairedDumpPointFile(pdp.id);
+		logMergeStats();
+	}
 
-					pdpCnt++;
-					if (pdpCnt % 10 != 0) {
-						continue;
-					}
+	/**
+	 * Combine a sender-side dump point with a receiver-side dump point of the
+	 * same message into an instance of the paired dump point, and offer it to
+	 * the sampler.
+	 * @param sdp The dump point at the sender side.
+	 * @param rdp The dump point at the receiver side.
+	 */
+	private static void emitPairedDumpPoint(DumpPoint sdp, DumpPoint rdp)
+					throws IOException {
+		String pdpId = sdp.id + "_and_" + rdp.id;
+		if (pdpIds.add(pdpId)) {
+			// Make sure every paired dump point gets a dtrace file.
+			if (Config.DIRECT_DTRACE_OUTPUT) {
+				pdpStore.register(pdpId);
+			} else {
+				appendNewDumpPointDelimiterToPairedDumpPointFile(pdpId);
+			}
+		}
 
-					// Fill in the variables on the sender side.
-					for (DumpPoint.Variable v : sdp.getVars()) {
-						appendVarToPairedDumpPointFile(
-										sdp.getNodeId() + "-" + v.name,
-										v.type, v.value, pdp.id);
-						varCnt++;
-					}
+		pdpCnt++;
+		if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+			// Removing the variables again from a dump point paired before is a
+			// no-op.
+			constantTracker.removeConstants(sdp);
+			constantTracker.removeConstants(rdp);
+		}
+		sampler.offer(pdpId, sdp, rdp);
+	}
 
-					// Fill in the variables on the receiver side.
-					for (DumpPoint.Variable v : rdp.getVars()) {
-						appendVarToPairedDumpPointFile(
-										rdp.getNodeId() + "-" + v.name,
-										v.type, v.value, pdp.id);
-						varCnt++;
-					}
-				}
-			}
+	/**
+	 * Write an instance of the paired dump point kept by the sampler.
+	 * @param pdpId The ID of the paired dump point.
+	 * @param sdp The dump point at the sender side.
+	 * @param rdp The dump point at the receiver side.
+	 */
+	private static void writePairedDumpPoint(
+					String pdpId, DumpPoint sdp, DumpPoint rdp) throws IOException {
+		if (Config.DIRECT_DTRACE_OUTPUT) {
+			pdpStore.addRecord(pdpId, sdp, rdp);
+			varCnt += sdp.getVars().size() + rdp.getVars().size();
+			return;
 		}
 
+		appendNewDumpPointDelimiterToPairedDumpPointFile(pdpId);
+
+		// Fill in the variables on the sender side.
+		for (DumpPoint.Variable v : sdp.getVars()) {
+			appendVarToPairedDumpPointFile(
+							sdp.getNodeId() + "-" + v.name,
+							v.type, v.value, pdpId);
+			varCnt++;
+		}
+
+		// Fill in the variables on the receiver side.
+		for (DumpPoint.Variable v : rdp.getVars()) {
+			appendVarToPairedDumpPointFile(
+							rdp.getNodeId() + "-" + v.name,
+							v.type, v.value, pdpId);
+			varCnt++;
+		}
+	}
+
+	private static void logMergeStats() throws IOException {
+		sampler.finish();
+		if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+			constantTracker.logStats();
+		}
 		Logger.debug("The resulting logs have " + varCnt + " variables.");
 		Logger.debug("The resulting logs have " + pdpIds.size() +
 						" unique paired dump points.");
@@ -354,6 +464,201 @@ public class LogMerger {
 						" paired dump point instances.");
 	}
 
+	/////////////////////
+	// Streaming merge //
+	/////////////////////
+
+	/**
+	 * Merge the profiling logs in the specified directory without loading them
+	 * all into memory. This works as an external sort by message ID:
+	 * 1. Read the send and receive entries of all the logs, and spill them to
+	 *    sorted runs once Config.MERGE_SPILL_THRESHOLD variables are buffered.
+	 * 2. Merge all the runs in a single pass. As the entries of a message are
+	 *    adjacent in the merged order, we only need to hold one message at a
+	 *    time to pair up its sender and receiver dump points.
+	 */
+	private static void streamAndMergeLogs(String logDirName) throws IOException {
+		File runDir = new File(Config.DIRECTORY_MERGE_RUNS);
+		runDir.mkdirs();
+		ArrayList<File> runs = spillSortedRuns(logDirName, runDir);
+		Logger.info("Spilled the profiling logs to " + runs.size() +
+						" sorted runs.");
+		mergeSortedRuns(runs);
+		for (File run : runs) {
+			run.delete();
+		}
+		logMergeStats();
+	}
+
+	/**
+	 * The order of the spilled entries: by message ID, then by action.
+	 */
+	private static final Comparator<ProfilingLogReader.Entry> kEntryOrder =
+					Comparator.comparing((ProfilingLogReader.Entry e) -> e.msgId)
+									.thenComparing(e -> e.action);
+
+	/**
+	 * Read the send and receive entries of all the profiling logs, and spill
+	 * them to sorted runs.
+	 * @param logDirName The directory of the profiling logs.
+	 * @param runDir The directory to spill the runs to.
+	 * @return The files of the sorted runs.
+	 */
+	private static ArrayList<File> spillSortedRuns(String logDirName, File runDir)
+					throws IOException {
+		int logFileCnt = 0;
+		ArrayList<File> runs = new ArrayList<>();
+		ArrayList<ProfilingLogReader.Entry> buffer = new ArrayList<>();
+		long bufferedVarCnt = 0;
+		for (File file : listLogFiles(logDirName)) {
+			logFileCnt++;
+			Logger.debug("Loading logs from file " + file);
+			ConstantVariableTracker threadTracker = new ConstantVariableTracker();
+			try (ProfilingLogReader reader = ProfilingLogReader.open(file)) {
+				ProfilingLogReader.Entry entry;
+				while ((entry = reader.next()) != null) {
+					if (entry.msgId.equals("null")) {
+						nullMsgCnt++;
+						continue;
+					}
+					if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+						for (DumpPoint dp : entry.dumpPoints) {
+							threadTracker.add(dp);
+						}
+					}
+					if (!entry.action.equals("send")
+									&& !entry.action.equals("receive")) {
+						continue;
+					}
+
+					buffer.add(entry);
+					for (DumpPoint dp : entry.dumpPoints) {
+						bufferedVarCnt += dp.getVars().size();
+					}
+					if (bufferedVarCnt >= Config.MERGE_SPILL_THRESHOLD) {
+						runs.add(spillRun(buffer, runDir, runs.size()));
+						bufferedVarCnt = 0;
+					}
+				}
+			}
+			if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+				constantTracker.merge(threadTracker);
+			}
+		}
+		if (!buffer.isEmpty()) {
+			runs.add(spillRun(buffer, runDir, runs.size()));
+		}
+		Logger.info("Found " + logFileCnt + " log files.");
+		if (Config.ELIMINATE_CONSTANT_VARIABLES) {
+			constantTracker.decide();
+		}
+		return runs;
+	}
+
+	/**
+	 * Sort the buffered entries and write them to a new run. The buffer is
+	 * cleared afterwards.
+	 */
+	private static File spillRun(ArrayList<ProfilingLogReader.Entry> buffer,
+															 File runDir, int runIdx) throws IOException {
+		buffer.sort(kEntryOrder);
+		File run = new File(runDir, "run" + runIdx + ".txt");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(run))) {
+			for (ProfilingLogReader.Entry entry : buffer) {
+				entry.write(writer);
+			}
+		}
+		buffer.clear();
+		return run;
+	}
+
+	/**
+	 * A sorted run being merged, with its next entry.
+	 */
+	private static class RunCursor {
+		final ProfilingLogReader reader;
+		ProfilingLogReader.Entry head;
+
+		RunCursor(File run) throws IOException {
+			reader = new TextProfilingLogReader(run, false);
+			head = reader.next();
+		}
+	}
+
+	/**
+	 * Merge the sorted runs, and pair up the sender and receiver dump points of
+	 * each message.
+	 * @param runs The files of the sorted runs.
+	 */
+	private static void mergeSortedRuns(ArrayList<File> runs) throws IOException {
+		PriorityQueue<RunCursor> queue = new PriorityQueue<>(Math.max(1,
+						runs.size()), (c1, c2) -> kEntryOrder.compare(c1.head, c2.head));
+		try {
+			for (File run : runs) {
+				RunCursor cursor = new RunCursor(run);
+				if (cursor.head != null) {
+					queue.add(cursor);
+				} else {
+					cursor.reader.close();
+				}
+			}
+
+			int sendCnt = 0;
+			int receiveCnt = 0;
+			while (!queue.isEmpty()) {
+				// Collect all the entries of the next message.
+				String msgId = queue.peek().head.msgId;
+				ProfilingLogReader.Entry sender = null;
+				ProfilingLogReader.Entry receiver = null;
+				while (!queue.isEmpty() && queue.peek().head.msgId.equals(msgId)) {
+					RunCursor cursor = queue.poll();
+					ProfilingLogReader.Entry entry = cursor.head;
+					if (entry.action.equals("send")) {
+						if (sender != null) {
+							throw new RuntimeException("Double sending message " + msgId);
+						}
+						sender = entry;
+						sendCnt++;
+					} else {
+						if (receiver != null) {
+							throw new RuntimeException("Double receiving message " + msgId);
+						}
+						receiver = entry;
+						receiveCnt++;
+					}
+
+					cursor.head = cursor.reader.next();
+					if (cursor.head != null) {
+						queue.add(cursor);
+					} else {
+						cursor.reader.close();
+					}
+				}
+
+				// Go over each sender-receiver pair to create the paired dump points.
+				if (receiver == null) {
+					continue;
+				}
+				if (sender == null) {
+					Logger.warn("The senderDumpPoints for " + msgId + " is null.");
+					continue;
+				}
+				for (DumpPoint rdp : receiver.dumpPoints) {
+					for (DumpPoint sdp : sender.dumpPoints) {
+						emitPairedDumpPoint(sdp, rdp);
+					}
+				}
+			}
+
+			Logger.info("Found " + sendCnt + " message sending events.");
+			Logger.info("Found " + receiveCnt + " message receiving events.");
+		} finally {
+			for (RunCursor cursor : queue) {
+				cursor.reader.close();
+			}
+		}
+	}
+
 	/**
 	 * Process each temporary profile log to make it readable for daikon.
 	 */
@@ -396,25 +701,100 @@ public class LogMerger {
 				curDp.addVar(line, type, value);
 			}
 		}
+		if (curDp != null && curDp.getVars().size() != 0) {
+			dumpPoints.add(curDp);
+		}
 
 		// Remove the prefixes.
-		for (int i = 0; i < vars.size();) {
-			boolean removed = false;
-			for (int j = i + 1; j < vars.size(); ++j) {
-				// If vars[i]'s name is the prefix of vars[j],
-				// there's no need to keep track of vars[i] separately.
-				if (vars.get(j).name.startsWith(vars.get(i).name)) {
-					vars.remove(i);
-					removed = true;
-					break;
+		ArrayList<DumpPoint.Variable> keptVars = removePrefixVars(vars);
+		vars.clear();
+		vars.addAll(keptVars);
+	}
+
+	/**
+	 * Remove the variables whose name is the prefix of a later variable's name,
+	 * e.g., "a.b" is removed if "a.b.c" comes after it. There's no need to keep
+	 * track of such variables separately. A name is also the prefix of itself,
+	 * so only the last occurrence of each name is kept.
+	 *
+	 * The names that start with a given name come right after it in the sorted
+	 * order. So we sort the names, binary-search the end of the range of each
+	 * name, and check if the range has a later variable with a range max query.
+	 * This takes O(n log n) comparisons instead of the O(n^2) of a pairwise
+	 * check.
+	 * @param vars The variables, in the order they appear.
+	 * @return The remaining variables, in the order of their last occurrences.
+	 */
+	static ArrayList<DumpPoint.Variable>
+	removePrefixVars(List<DumpPoint.Variable> vars) {
+		// Only keep the last occurrence of each name.
+		LinkedHashMap<String, DumpPoint.Variable> lastOccurrences =
+						new LinkedHashMap<>();
+		for (DumpPoint.Variable v : vars) {
+			lastOccurrences.remove(v.name);
+			lastOccurrences.put(v.name, v);
+		}
+		ArrayList<DumpPoint.Variable> uniqueVars =
+						new ArrayList<>(lastOccurrences.values());
+		int n = uniqueVars.size();
+
+		// Sort the positions of the variables by their names.
+		Integer[] sorted = new Integer[n];
+		for (int i = 0; i < n; ++i) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, Comparator.comparing(i -> uniqueVars.get(i).name));
+
+		// Build a sparse table for the max position over a range of the sorted
+		// names. maxPos[k][i] is the max position in sorted[i, i + 2^k).
+		int levels = 1;
+		while ((1 << levels) <= n) {
+			levels++;
+		}
+		int[][] maxPos = new int[levels][];
+		maxPos[0] = new int[n];
+		for (int i = 0; i < n; ++i) {
+			maxPos[0][i] = sorted[i];
+		}
+		for (int k = 1; k < levels; ++k) {
+			int half = 1 << (k - 1);
+			maxPos[k] = new int[n - (1 << k) + 1];
+			for (int i = 0; i < maxPos[k].length; ++i) {
+				maxPos[k][i] = Math.max(maxPos[k - 1][i], maxPos[k - 1][i + half]);
+			}
+		}
+
+		boolean[] removed = new boolean[n];
+		for (int i = 0; i < n; ++i) {
+			String prefix = uniqueVars.get(sorted[i]).name;
+			// Find the end of the names starting with the prefix.
+			int lo = i + 1, hi = n;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (uniqueVars.get(sorted[mid]).name.startsWith(prefix)) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
 				}
 			}
-			// If vars[i] is not a prefix of any of the vars,
-			// repeat the checking for next var.
-			if (!removed) {
-				i++;
+			if (lo == i + 1) {
+				continue;
+			}
+			// Check if any of them comes later.
+			int k = 31 - Integer.numberOfLeadingZeros(lo - i - 1);
+			int max = Math.max(maxPos[k][i + 1], maxPos[k][lo - (1 << k)]);
+			if (max > sorted[i]) {
+				removed[sorted[i]] = true;
+			}
+		}
+
+		ArrayList<DumpPoint.Variable> keptVars = new ArrayList<>();
+		for (int i = 0; i < n; ++i) {
+			if (!removed[i]) {
+				keptVars.add(uniqueVars.get(i));
 			}
 		}
+		return keptVars;
 	}
 
 	private static void daikonizeLog(String pdpId) throws IOException {
@@ -430,65 +810,93 @@ public class LogMerger {
 		try (BufferedWriter writer = new BufferedWriter(
 						new FileWriter("dtraces/" + pdpId + ".dtrace"))) {
 			// 1. Write the declarations.
-			// 1.1. Specify the program point.
-			writer.write("decl-version 2.0\n");
-			writer.write("var-comparability none\n\n");
-			writer.write("ppt " + pdpId + ":::UNUSED\n");
-			writer.write("ppt-type point\n");
-			// 1.2. Declare the variables.
-			for (DumpPoint.Variable v : vars) {
-				writer.write("variable " + v.name + "\n");
-				writer.write("var-kind variable\n");
-				writer.write("dec-type " + v.type + "\n");
-				writer.write("rep-type " + v.type + "\n");
-				writer.write("comparability -1\n");;
-			}
-			writer.write('\n');
+			writeDtraceDecls(writer, pdpId, vars);
 
 			// 2. Write the data trace records
 			int recordIdx = 0;
 			for (DumpPoint dp : dumpPoints) {
-				// 2.1. Program point name, i.e., dump point ID.
-				writer.write(pdpId + ":::UNUSED\n");
-				// 2.2. Nonce
-				writer.write("this_invocation_nonce\n");
-				writer.write(recordIdx++ + "\n");
-				// 2.3. Variable details.
-				for (DumpPoint.Variable v : vars) {
-					// 2.3.1. Variable name.
-					writer.write(v.name + "\n");
-					// 2.3.2. Variable value.
-					String value = dp.valOfVar(v.name);
-					if (value != null) {
-						if (v.type.equals("string")) {
-							writer.write("\"" + value + "\"\n");
-						} else {
-							writer.write(value + "\n");
-						}
-					} else {
-						switch (v.type) {
-							case "int":
-								writer.write("0\n");
-								break;
-							case "float":
-								writer.write("0.0\n");
-								break;
-							case "boolean":
-								writer.write("false\n");
-								break;
-							case "string":
-								writer.write("\"\"\n");
-								break;
-							default:
-								throw new IllegalStateException("Unrecognized variable type!");
-						}
-					}
-					// 2.3.3. Modified? Daikon says it's safe to always specify 1:
-					// https://plse.cs.washington.edu/daikon/download/doc/developer/File-formats.html#Data-trace-records
-					writer.write(1 + "\n");
+				writeDtraceRecord(writer, pdpId, recordIdx++, vars, dp::valOfVar);
+			}
+		}
+	}
+
+	/**
+	 * Write the declarations of a dtrace file.
+	 * @param writer The writer of the dtrace file.
+	 * @param pdpId The ID of the paired dump point, i.e., the program point.
+	 * @param vars The variables to declare.
+	 */
+	static void writeDtraceDecls(Writer writer, String pdpId,
+															 Collection<DumpPoint.Variable> vars)
+					throws IOException {
+		// 1.1. Specify the program point.
+		writer.write("decl-version 2.0\n");
+		writer.write("var-comparability none\n\n");
+		writer.write("ppt " + pdpId + ":::UNUSED\n");
+		writer.write("ppt-type point\n");
+		// 1.2. Declare the variables.
+		for (DumpPoint.Variable v : vars) {
+			writer.write("variable " + v.name + "\n");
+			writer.write("var-kind variable\n");
+			writer.write("dec-type " + v.type + "\n");
+			writer.write("rep-type " + v.type + "\n");
+			writer.write("comparability -1\n");;
+		}
+		writer.write('\n');
+	}
+
+	/**
+	 * Write a data trace record of a dtrace file.
+	 * @param writer The writer of the dtrace file.
+	 * @param pdpId The ID of the paired dump point, i.e., the program point.
+	 * @param recordIdx The index of the record.
+	 * @param vars The declared variables.
+	 * @param valueOf Get the value of a variable in this record by its name, or
+	 *                null if the variable is missing.
+	 */
+	static void writeDtraceRecord(Writer writer, String pdpId, int recordIdx,
+																Collection<DumpPoint.Variable> vars,
+																Function<String, String> valueOf)
+					throws IOException {
+		// 2.1. Program point name, i.e., dump point ID.
+		writer.write(pdpId + ":::UNUSED\n");
+		// 2.2. Nonce
+		writer.write("this_invocation_nonce\n");
+		writer.write(recordIdx + "\n");
+		// 2.3. Variable details.
+		for (DumpPoint.Variable v : vars) {
+			// 2.3.1. Variable name.
+			writer.write(v.name + "\n");
+			// 2.3.2. Variable value.
+			String value = valueOf.apply(v.name);
+			if (value != null) {
+				if (v.type.equals("string")) {
+					writer.write("\"" + value + "\"\n");
+				} else {
+					writer.write(value + "\n");
+				}
+			} else {
+				switch (v.type) {
+					case "int":
+						writer.write("0\n");
+						break;
+					case "float":
+						writer.write("0.0\n");
+						break;
+					case "boolean":
+						writer.write("false\n");
+						break;
+					case "string":
+						writer.write("\"\"\n");
+						break;
+					default:
+						throw new IllegalStateException("Unrecognized variable type!");
 				}
-				writer.write("\n");
 			}
+			// 2.3.3. Modified? Daikon says it's safe to always specify 1:
+			// https://plse.cs.washington.edu/daikon/download/doc/developer/File-formats.html#Data-trace-records
+			writer.write(1 + "\n");
 		}
+		writer.write("\n");
 	}
 }
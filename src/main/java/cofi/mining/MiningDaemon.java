@@ -0,0 +1,357 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.invariant.Invariant;
+import cofi.invariant.VariableEquality;
+import cofi.util.Config;
+import cofi.util.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mine the invariants while the workload is still running. The daemon tails
+ * the text profiling logs as the client writes them, and pairs up the sender
+ * and receiver dump points of a message as soon as both of its entries are
+ * written. No more instances of the paired dump points can come out of that
+ * message, so the instances are fed into the EqualityMiner of each paired dump
+ * point right away, and only the unpaired entries are held in memory.
+ *
+ * The workload tells the daemon it's done by creating the
+ * Config.FILE_NAME_MINING_DONE file in the directory of the profiling logs.
+ * The daemon then reads the rest of the logs, and writes the invariants like
+ * EqualityMiner does, so only this tail end of the pipeline is left after the
+ * workload.
+ *
+ * Usage: MiningDaemon <log-dir> <interesting-vars>
+ */
+public class MiningDaemon {
+	// The max number of bytes to read from a profiling log at a time.
+	private static final int kMaxChunkSize = 1 << 26;
+
+	/**
+	 * A profiling log being tailed.
+	 */
+	private static class TailedLog {
+		final File file;
+		// The end of the last complete entry read so far, in bytes.
+		long offset = 0;
+
+		TailedLog(File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * A paired dump point being mined.
+	 */
+	private static class PairedDumpPoint {
+		final EqualityMiner miner;
+		// The types of the variables, in the order of their last occurrences,
+		// like in the dtrace files.
+		final LinkedHashMap<String, String> varTypes = new LinkedHashMap<>();
+
+		PairedDumpPoint(String id) {
+			miner = new EqualityMiner(id + ":::UNUSED", new ArrayList<>(),
+							new ArrayList<>());
+		}
+	}
+
+	private final File logDir;
+	private final HashMap<String, TailedLog> logs = new HashMap<>();
+	// The send and receive entries whose counterparts are not read yet, by
+	// message ID.
+	private final HashMap<String, ProfilingLogReader.Entry> pendingSenders =
+					new HashMap<>();
+	private final HashMap<String, ProfilingLogReader.Entry> pendingReceivers =
+					new HashMap<>();
+	// The messages whose dump points are paired up already.
+	private final HashSet<String> pairedMsgIds = new HashSet<>();
+	private final HashMap<String, PairedDumpPoint> pdps = new HashMap<>();
+	private final Sampler sampler = new Sampler(
+					Sampler.Mode.valueOf(Config.SAMPLING_MODE), this::mine);
+	private long entryCnt = 0;
+
+	public MiningDaemon(File logDir) {
+		this.logDir = logDir;
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			Logger.fatal("Usage: java cofi.mining.MiningDaemon <log-dir> " +
+							"<interesting-vars>");
+			System.exit(1);
+		}
+
+		try {
+			InvPruner.loadInterestingVariables(args[1]);
+			new MiningDaemon(new File(args[0])).run();
+		} catch (Throwable t) {
+			Logger.fatal("Unexpected exception when mining invariants.", t);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Tail the profiling logs until the workload is done, and write the
+	 * invariants.
+	 */
+	public void run() throws IOException, InterruptedException {
+		File doneFile = new File(logDir, Config.FILE_NAME_MINING_DONE);
+		while (true) {
+			// Check for the done file first, so that the last poll sees all the
+			// entries written before it.
+			boolean done = doneFile.exists();
+			long startTime = System.currentTimeMillis();
+			long oldEntryCnt = entryCnt;
+			poll();
+			if (entryCnt > oldEntryCnt) {
+				Logger.debug("Read " + (entryCnt - oldEntryCnt) + " entries in " +
+								(System.currentTimeMillis() - startTime) + " ms, " +
+								(pendingSenders.size() + pendingReceivers.size()) +
+								" entries are not paired yet.");
+			}
+			if (done) {
+				break;
+			}
+			Thread.sleep(Config.MINING_DAEMON_POLL_INTERVAL_MS);
+		}
+		finish();
+	}
+
+	/**
+	 * Read the complete entries appended to the profiling logs since the last
+	 * poll, including the logs created since then.
+	 */
+	private void poll() throws IOException {
+		for (File file : LogMerger.listLogFiles(logDir.getPath())) {
+			if (file.getName().endsWith(".bin")) {
+				throw new IOException("The mining daemon only tails the profiling " +
+								"logs in the text format, but found " + file);
+			}
+			TailedLog log = logs.get(file.getName());
+			if (log == null) {
+				log = new TailedLog(file);
+				logs.put(file.getName(), log);
+			}
+			readNewEntries(log);
+		}
+	}
+
+	private void readNewEntries(TailedLog log) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(log.file, "r")) {
+			int chunkSize = kMaxChunkSize;
+			while (log.offset < file.length()) {
+				int len = (int) Math.min(file.length() - log.offset, chunkSize);
+				byte[] buf = new byte[len];
+				file.seek(log.offset);
+				file.readFully(buf);
+				int end = endOfCompleteEntries(buf, len);
+				if (end == 0) {
+					if (len < chunkSize) {
+						// The last entry is still being written.
+						return;
+					}
+					// The entry doesn't fit into the chunk.
+					chunkSize *= 2;
+					continue;
+				}
+
+				try (ProfilingLogReader reader = new TextProfilingLogReader(
+								new InputStreamReader(new ByteArrayInputStream(buf, 0, end)),
+								true)) {
+					ProfilingLogReader.Entry entry;
+					while ((entry = reader.next()) != null) {
+						entryCnt++;
+						pair(entry);
+					}
+				}
+				log.offset += end;
+			}
+		}
+	}
+
+	/**
+	 * Find the end of the complete entries at the start of the buffer. See
+	 * TextProfilingLogReader for the format of the entries.
+	 * @return The end of the last complete entry, or 0 if there is none.
+	 */
+	private static int endOfCompleteEntries(byte[] buf, int len) {
+		int end = 0;
+		while (true) {
+			// The action and the message ID.
+			int pos = skipLines(buf, len, end, 2);
+			int[] dpCnt = readCount(buf, len, pos);
+			if (dpCnt == null) {
+				return end;
+			}
+			pos = dpCnt[1];
+			for (int dpIdx = 0; dpIdx < dpCnt[0] && pos != -1; ++dpIdx) {
+				// The dump point ID, then the name, type, and value of each variable.
+				int[] varCnt = readCount(buf, len, skipLines(buf, len, pos, 1));
+				pos = varCnt == null
+								? -1 : skipLines(buf, len, varCnt[1], 3 * varCnt[0]);
+			}
+			// The tail empty line.
+			pos = skipLines(buf, len, pos, 1);
+			if (pos == -1) {
+				return end;
+			}
+			end = pos;
+		}
+	}
+
+	/**
+	 * @return The start of the line after the skipped lines, or -1 if they
+	 *         are not complete.
+	 */
+	private static int skipLines(byte[] buf, int len, int pos, int lineCnt) {
+		for (int i = 0; i < lineCnt && pos != -1; ++i) {
+			while (pos < len && buf[pos] != '\n') {
+				pos++;
+			}
+			pos = pos < len ? pos + 1 : -1;
+		}
+		return pos;
+	}
+
+	/**
+	 * Read a line with a count.
+	 * @return The count and the start of the next line, or null if the line is
+	 *         not complete.
+	 */
+	private static int[] readCount(byte[] buf, int len, int pos) {
+		int next = pos == -1 ? -1 : skipLines(buf, len, pos, 1);
+		if (next == -1) {
+			return null;
+		}
+		return new int[]{Integer.parseInt(new String(buf, pos, next - pos - 1)),
+						next};
+	}
+
+	/**
+	 * Pair up the send and receive entries of the same message.
+	 */
+	private void pair(ProfilingLogReader.Entry entry) throws IOException {
+		boolean isSend = entry.action.equals("send");
+		if (entry.msgId.equals("null")
+						|| (!isSend && !entry.action.equals("receive"))) {
+			return;
+		}
+		String msgId = entry.msgId;
+		HashMap<String, ProfilingLogReader.Entry> pending =
+						isSend ? pendingSenders : pendingReceivers;
+		if (pairedMsgIds.contains(msgId) || pending.containsKey(msgId)) {
+			throw new RuntimeException((isSend
+							? "Double sending message " : "Double receiving message ") + msgId);
+		}
+		ProfilingLogReader.Entry counterpart =
+						(isSend ? pendingReceivers : pendingSenders).remove(msgId);
+		if (counterpart == null) {
+			pending.put(msgId, entry);
+			return;
+		}
+		pairedMsgIds.add(msgId);
+
+		ProfilingLogReader.Entry sender = isSend ? entry : counterpart;
+		ProfilingLogReader.Entry receiver = isSend ? counterpart : entry;
+		for (DumpPoint rdp : receiver.dumpPoints) {
+			for (DumpPoint sdp : sender.dumpPoints) {
+				sampler.offer(sdp.id + "_and_" + rdp.id, sdp, rdp);
+			}
+		}
+	}
+
+	/**
+	 * Mine an instance of the paired dump point kept by the sampler.
+	 */
+	private void mine(String pdpId, DumpPoint sdp, DumpPoint rdp) {
+		PairedDumpPoint pdp = pdps.get(pdpId);
+		if (pdp == null) {
+			pdp = new PairedDumpPoint(pdpId);
+			pdps.put(pdpId, pdp);
+		}
+		LinkedHashMap<String, DumpPoint.Variable> record = new LinkedHashMap<>();
+		for (DumpPoint dp : new DumpPoint[]{sdp, rdp}) {
+			for (DumpPoint.Variable v : dp.getVars()) {
+				record.put(dp.getNodeId() + "-" + v.name, v);
+			}
+		}
+		if (record.isEmpty()) {
+			return;
+		}
+
+		ArrayList<String> names = new ArrayList<>();
+		ArrayList<String> types = new ArrayList<>();
+		String[] values = new String[record.size()];
+		for (Map.Entry<String, DumpPoint.Variable> var : record.entrySet()) {
+			DumpPoint.Variable v = var.getValue();
+			// Write the values the way they are in the dtrace files.
+			values[names.size()] =
+							v.type.equals("string") ? "\"" + v.value + "\"" : v.value;
+			names.add(var.getKey());
+			types.add(v.type);
+			pdp.varTypes.remove(var.getKey());
+			pdp.varTypes.put(var.getKey(), v.type);
+		}
+		pdp.miner.addSample(pdp.miner.addVariables(names, types), values);
+	}
+
+	/**
+	 * Write the invariants of all the paired dump points, and select the ones
+	 * to test.
+	 */
+	private void finish() throws IOException {
+		sampler.finish();
+		for (String msgId : pendingReceivers.keySet()) {
+			Logger.warn("The senderDumpPoints for " + msgId + " is null.");
+		}
+		Logger.info("Read " + entryCnt + " entries from " + logs.size() +
+						" log files, and paired up " + pairedMsgIds.size() + " messages.");
+
+		HashSet<Invariant> invs = new HashSet<>();
+		try (BufferedWriter writer = new BufferedWriter(
+						new FileWriter(Config.FILE_NAME_MINED_INVARIANTS))) {
+			writer.write("\n");
+			for (Map.Entry<String, PairedDumpPoint> entry :
+							new TreeMap<>(pdps).entrySet()) {
+				// Skip the variables that would not be declared in the dtrace file.
+				ArrayList<DumpPoint.Variable> vars = new ArrayList<>();
+				for (Map.Entry<String, String> var :
+								entry.getValue().varTypes.entrySet()) {
+					vars.add(new DumpPoint.Variable(var.getKey(), var.getValue(), null));
+				}
+				ArrayList<String> names = new ArrayList<>();
+				for (DumpPoint.Variable v : LogMerger.removePrefixVars(vars)) {
+					names.add(v.name);
+				}
+				entry.getValue().miner.retain(names).collect(writer, invs);
+			}
+		}
+		Logger.info("Mined " + invs.size() + " unique invariants out of " +
+						pdps.size() + " paired dump points.");
+
+		HashSet<VariableEquality> candidates = InvPruner.selectCandidates(invs);
+		InvPruner.writeInvsToFile(InvPruner.dedupModuloNodeRenaming(candidates),
+						Config.FILE_NAME_SELECTED_INVARIANTS);
+	}
+}
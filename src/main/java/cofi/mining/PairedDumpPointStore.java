@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Config;
+import cofi.util.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Aggregate the records of each paired dump point, and write them straight
+ * into dtrace files. The declarations are maintained as the records come in,
+ * so the records are written only once. When the buffered records grow over
+ * Config.DTRACE_BUFFER_LIMIT characters, they are spilled to one file per
+ * paired dump point, and read back when writing the dtrace files.
+ */
+public class PairedDumpPointStore {
+	private static class PairedDumpPoint {
+		final String id;
+		// The types of the variables, in the order of their last occurrences.
+		final LinkedHashMap<String, String> varTypes = new LinkedHashMap<>();
+		// The records that are not spilled yet. Each maps variable names to
+		// values.
+		ArrayList<HashMap<String, String>> records = new ArrayList<>();
+		// The number of records spilled to disk.
+		int spilledCnt = 0;
+
+		PairedDumpPoint(String id) {
+			this.id = id;
+		}
+	}
+
+	private final HashMap<String, PairedDumpPoint> pdps = new HashMap<>();
+	private final File spillDir;
+	// The size of the buffered records, in characters.
+	private long bufferedSize = 0;
+	private int spillCnt = 0;
+
+	public PairedDumpPointStore(File spillDir) {
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * Make sure the paired dump point gets a dtrace file, even if none of its
+	 * records are added.
+	 * @param pdpId The ID of the paired dump point.
+	 */
+	public void register(String pdpId) {
+		getOrCreate(pdpId);
+	}
+
+	/**
+	 * Add a record, i.e., the variables of a sender-side dump point combined
+	 * with the variables of a receiver-side dump point, to the paired dump
+	 * point. The variables are prefixed with the ID of their node.
+	 * @param pdpId The ID of the paired dump point.
+	 * @param sdp The dump point at the sender side.
+	 * @param rdp The dump point at the receiver side.
+	 */
+	public void addRecord(String pdpId, DumpPoint sdp, DumpPoint rdp)
+					throws IOException {
+		PairedDumpPoint pdp = getOrCreate(pdpId);
+		HashMap<String, String> record = new HashMap<>();
+		addVars(pdp, record, sdp);
+		addVars(pdp, record, rdp);
+		if (record.isEmpty()) {
+			return;
+		}
+		pdp.records.add(record);
+
+		if (bufferedSize > Config.DTRACE_BUFFER_LIMIT) {
+			spill();
+		}
+	}
+
+	private void addVars(PairedDumpPoint pdp, HashMap<String, String> record,
+											 DumpPoint dp) {
+		for (DumpPoint.Variable v : dp.getVars()) {
+			String name = dp.getNodeId() + "-" + v.name;
+			// Move the variable to the end, so that the variables stay in the
+			// order of their last occurrences.
+			pdp.varTypes.remove(name);
+			pdp.varTypes.put(name, v.type);
+			record.put(name, v.value);
+			bufferedSize += name.length() + v.value.length();
+		}
+	}
+
+	private PairedDumpPoint getOrCreate(String pdpId) {
+		PairedDumpPoint pdp = pdps.get(pdpId);
+		if (pdp == null) {
+			pdp = new PairedDumpPoint(pdpId);
+			pdps.put(pdpId, pdp);
+		}
+		return pdp;
+	}
+
+	public int size() {
+		return pdps.size();
+	}
+
+	private File spillFileFor(PairedDumpPoint pdp) {
+		return new File(spillDir, pdp.id + ".log");
+	}
+
+	/**
+	 * Append the buffered records of each paired dump point to its spill file.
+	 * Each record starts with an empty line, followed by the name and the value
+	 * of each variable.
+	 */
+	private void spill() throws IOException {
+		spillDir.mkdirs();
+		for (PairedDumpPoint pdp : pdps.values()) {
+			if (pdp.records.isEmpty()) {
+				continue;
+			}
+			try (BufferedWriter writer = new BufferedWriter(
+							new FileWriter(spillFileFor(pdp), true))) {
+				for (HashMap<String, String> record : pdp.records) {
+					writer.write("\n");
+					for (Map.Entry<String, String> var : record.entrySet()) {
+						writer.write(var.getKey() + "\n");
+						writer.write(var.getValue() + "\n");
+					}
+				}
+			}
+			pdp.spilledCnt += pdp.records.size();
+			pdp.records = new ArrayList<>();
+		}
+		bufferedSize = 0;
+		spillCnt++;
+		Logger.debug("Spilled the paired dump point records " + spillCnt +
+						" times.");
+	}
+
+	/**
+	 * Write a dtrace file for each paired dump point.
+	 * @param dtraceDir The directory for the dtrace files.
+	 * @param gzip Whether to compress the dtrace files.
+	 */
+	public void writeDtraces(File dtraceDir, boolean gzip) throws IOException {
+		int pdpIdx = 0;
+		for (PairedDumpPoint pdp : pdps.values()) {
+			Logger.info("Writing dtrace file #" + ++pdpIdx);
+			writeDtrace(pdp, dtraceDir, gzip);
+		}
+	}
+
+	private void writeDtrace(PairedDumpPoint pdp, File dtraceDir, boolean gzip)
+					throws IOException {
+		// Keep the variables that are not the prefix of any later variable.
+		ArrayList<DumpPoint.Variable> vars = new ArrayList<>();
+		for (Map.Entry<String, String> var : pdp.varTypes.entrySet()) {
+			vars.add(new DumpPoint.Variable(var.getKey(), var.getValue(), null));
+		}
+		vars = LogMerger.removePrefixVars(vars);
+
+		OutputStream out;
+		if (gzip) {
+			out = new GZIPOutputStream(new FileOutputStream(
+							new File(dtraceDir, pdp.id + ".dtrace.gz")));
+		} else {
+			out = new FileOutputStream(new File(dtraceDir, pdp.id + ".dtrace"));
+		}
+		try (BufferedWriter writer = new BufferedWriter(
+						new OutputStreamWriter(out))) {
+			LogMerger.writeDtraceDecls(writer, pdp.id, vars);
+
+			// Write the spilled records first, as they come earlier.
+			int recordIdx = 0;
+			if (pdp.spilledCnt > 0) {
+				File spillFile = spillFileFor(pdp);
+				try (BufferedReader reader = new BufferedReader(
+								new FileReader(spillFile))) {
+					HashMap<String, String> record = null;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.equals("")) {
+							if (record != null) {
+								LogMerger.writeDtraceRecord(
+												writer, pdp.id, recordIdx++, vars, record::get);
+							}
+							record = new HashMap<>();
+						} else {
+							record.put(line, reader.readLine());
+						}
+					}
+					if (record != null) {
+						LogMerger.writeDtraceRecord(
+										writer, pdp.id, recordIdx++, vars, record::get);
+					}
+				}
+				spillFile.delete();
+			}
+			for (HashMap<String, String> record : pdp.records) {
+				LogMerger.writeDtraceRecord(
+								writer, pdp.id, recordIdx++, vars, record::get);
+			}
+		}
+		pdp.records = null;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * A regression benchmark for LogMerger.removePrefixVars(). It builds the
+ * variables of a synthetic paired dump point with many nested access paths,
+ * like the ones under Gossiper's endpointStateMap, and checks the result and
+ * the running time against the original pairwise elimination.
+ *
+ * Usage: PrefixEliminationBenchmark [endpoints] [states-per-endpoint]
+ */
+public class PrefixEliminationBenchmark {
+	public static void main(String[] args) {
+		int endpoints = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int states = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		ArrayList<DumpPoint.Variable> vars = generateVars(endpoints, states);
+		Logger.info("Generated " + vars.size() + " variable records.");
+
+		long startTime = System.nanoTime();
+		ArrayList<DumpPoint.Variable> expected = removePrefixVarsPairwise(vars);
+		long pairwiseMs = (System.nanoTime() - startTime) / 1000000;
+
+		startTime = System.nanoTime();
+		ArrayList<DumpPoint.Variable> actual = LogMerger.removePrefixVars(vars);
+		long sortedMs = (System.nanoTime() - startTime) / 1000000;
+
+		Logger.info("Pairwise elimination: " + pairwiseMs + " ms, " +
+						expected.size() + " variables kept.");
+		Logger.info("Sort-based elimination: " + sortedMs + " ms, " +
+						actual.size() + " variables kept.");
+
+		boolean same = expected.size() == actual.size();
+		for (int i = 0; same && i < expected.size(); ++i) {
+			same = expected.get(i).name.equals(actual.get(i).name)
+							&& expected.get(i).type.equals(actual.get(i).type);
+		}
+		if (!same) {
+			Logger.fatal("The sort-based elimination keeps different variables.");
+			System.exit(1);
+		}
+		Logger.info("Both eliminations keep the same variables.");
+	}
+
+	/**
+	 * Generate the variable records of a paired dump point, where each record
+	 * may occur several times, and the nested paths come in random order.
+	 */
+	private static ArrayList<DumpPoint.Variable> generateVars(
+					int endpoints, int states) {
+		Random random = new Random(42);
+		ArrayList<DumpPoint.Variable> vars = new ArrayList<>();
+		for (String node : new String[]{"nd1", "nd2"}) {
+			String map = node + "-org.apache.cassandra.gms.Gossiper.instance" +
+							".endpointStateMap";
+			vars.add(new DumpPoint.Variable(map, "int", "0"));
+			for (int ep = 0; ep < endpoints; ++ep) {
+				String endpoint = map + ".get(" + ep + ")";
+				vars.add(new DumpPoint.Variable(endpoint, "int", "0"));
+				vars.add(new DumpPoint.Variable(
+								endpoint + ".applicationState", "int", "0"));
+				for (int st = 0; st < states; ++st) {
+					String state = endpoint + ".applicationState.get().get(" + st + ")";
+					vars.add(new DumpPoint.Variable(state, "int", "0"));
+					if (random.nextInt(4) != 0) {
+						vars.add(new DumpPoint.Variable(
+										state + ".value", "string", "v" + st));
+					}
+					vars.add(new DumpPoint.Variable(
+									state + ".version", "int", "" + st));
+				}
+			}
+		}
+		// Dump the records a few times, in different orders.
+		ArrayList<DumpPoint.Variable> records = new ArrayList<>();
+		for (int i = 0; i < 3; ++i) {
+			Collections.shuffle(vars, random);
+			records.addAll(vars);
+		}
+		return records;
+	}
+
+	/**
+	 * The original elimination in LogMerger.getAllVarsFromLog().
+	 */
+	private static ArrayList<DumpPoint.Variable> removePrefixVarsPairwise(
+					ArrayList<DumpPoint.Variable> allVars) {
+		ArrayList<DumpPoint.Variable> vars = new ArrayList<>(allVars);
+		for (int i = 0; i < vars.size();) {
+			boolean removed = false;
+			for (int j = i + 1; j < vars.size(); ++j) {
+				// If vars[i]'s name is the prefix of vars[j],
+				// there's no need to keep track of vars[i] separately.
+				if (vars.get(j).name.startsWith(vars.get(i).name)) {
+					vars.remove(i);
+					removed = true;
+					break;
+				}
+			}
+			// If vars[i] is not a prefix of any of the vars,
+			// repeat the checking for next var.
+			if (!removed) {
+				i++;
+			}
+		}
+		return vars;
+	}
+}
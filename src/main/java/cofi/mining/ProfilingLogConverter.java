@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Convert the text profiling logs in a directory into the binary format. The
+ * binary log td#_nd#.bin is written next to the text log td#_nd#.txt, and
+ * LogMerger prefers the binary one when both exist.
+ *
+ * Usage: ProfilingLogConverter <log-dir>
+ */
+public class ProfilingLogConverter {
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			Logger.fatal("Usage: java cofi.mining.ProfilingLogConverter <log-dir>");
+			System.exit(1);
+		}
+
+		try {
+			long textBytes = 0, binaryBytes = 0;
+			int fileCnt = 0;
+			for (File textLog : LogMerger.listLogFiles(args[0])) {
+				if (!textLog.getName().endsWith(".txt")) {
+					continue;
+				}
+				File binaryLog = convert(textLog);
+				textBytes += textLog.length();
+				binaryBytes += binaryLog.length();
+				fileCnt++;
+			}
+			Logger.info("Converted " + fileCnt + " profiling logs from " +
+							textBytes + " bytes to " + binaryBytes + " bytes.");
+		} catch (Throwable t) {
+			Logger.fatal("Unexpected exception when converting profiling logs.", t);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Convert a text profiling log into the binary format, keeping every
+	 * variable.
+	 * @param textLog The text profiling log.
+	 * @return The binary profiling log.
+	 */
+	static File convert(File textLog) throws IOException {
+		String name = textLog.getName();
+		File binaryLog = new File(textLog.getParentFile(),
+						name.substring(0, name.length() - ".txt".length()) + ".bin");
+		try (TextProfilingLogReader reader = new TextProfilingLogReader(textLog, false);
+				 BinaryProfilingLogWriter writer = new BinaryProfilingLogWriter(binaryLog)) {
+			ProfilingLogReader.Entry entry;
+			while ((entry = reader.next()) != null) {
+				writer.write(entry);
+			}
+		}
+		return binaryLog;
+	}
+}
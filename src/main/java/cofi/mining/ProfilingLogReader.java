@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Config;
+import cofi.variable.VariableFilter;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Read the entries of a profiling log one at a time. Each entry records the
+ * variables dumped when a thread performs an action, i.e., init, send, or
+ * receive, on a message. The logs are either in the text format (see
+ * TextProfilingLogReader) or in the binary format (see
+ * BinaryProfilingLogWriter).
+ */
+public abstract class ProfilingLogReader implements Closeable {
+	/**
+	 * The variables dumped for one action.
+	 */
+	public static class Entry {
+		public final String action;
+		public final String msgId;
+		public final ArrayList<DumpPoint> dumpPoints = new ArrayList<>();
+
+		public Entry(String action, String msgId) {
+			this.action = action;
+			this.msgId = msgId;
+		}
+
+		/**
+		 * Write this entry in the text format.
+		 * @param writer The writer to write to.
+		 */
+		public void write(Writer writer) throws IOException {
+			writer.write(action + "\n");
+			writer.write(msgId + "\n");
+			writer.write(dumpPoints.size() + "\n");
+			for (DumpPoint dp : dumpPoints) {
+				writer.write(dp.id + "\n");
+				writer.write(dp.getVars().size() + "\n");
+				for (DumpPoint.Variable v : dp.getVars()) {
+					writer.write(v.name + "\n");
+					writer.write(v.type + "\n");
+					writer.write(v.value + "\n");
+				}
+			}
+			writer.write("\n");
+		}
+	}
+
+	// The variables to keep, loaded on the first use.
+	private static VariableFilter variableFilter = null;
+
+	// Whether to skip the variables that we are not interested in.
+	private final boolean filtered;
+
+	protected ProfilingLogReader(boolean filtered) throws IOException {
+		this.filtered = filtered;
+		if (filtered) {
+			loadVariableFilter();
+		}
+	}
+
+	private static synchronized void loadVariableFilter() throws IOException {
+		if (variableFilter == null) {
+			variableFilter = VariableFilter.load(Config.FILE_NAME_VARIABLE_FILTERS);
+		}
+	}
+
+	/**
+	 * Open a profiling log in either format, judging from its file name.
+	 * @param logFile The profiling log.
+	 * @return The reader of the profiling log.
+	 */
+	public static ProfilingLogReader open(File logFile) throws IOException {
+		if (logFile.getName().endsWith(".bin")) {
+			return new BinaryProfilingLogReader(logFile, true);
+		} else {
+			return new TextProfilingLogReader(logFile, true);
+		}
+	}
+
+	/**
+	 * Read the next entry.
+	 * @return The next entry, or null if there is none left.
+	 */
+	public abstract Entry next() throws IOException;
+
+	/**
+	 * Add a variable to the dump point, unless it should be skipped. The
+	 * client skips these variables already when the same filters are
+	 * deployed to it; this is a safeguard for the logs collected otherwise.
+	 */
+	protected void addVar(DumpPoint dp, String name, String type, String value) {
+		if (filtered && !variableFilter.accepts(name)) {
+			return;
+		}
+
+		dp.addVar(name, type, value);
+	}
+}
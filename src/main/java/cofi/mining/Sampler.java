@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import cofi.util.Config;
+import cofi.util.Logger;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Decide which instances of the paired dump points go into the dtrace files.
+ * The sampling bounds the size of the dtrace files, and thus Daikon's running
+ * time. The supported modes are:
+ * - NONE: Keep every instance.
+ * - GLOBAL_NTH: Keep every Config.SAMPLING_INTERVAL-th instance, counting the
+ *   instances of all the paired dump points together.
+ * - STRATIFIED: Keep every Config.SAMPLING_INTERVAL-th instance of each paired
+ *   dump point.
+ * - RESERVOIR: Keep Config.SAMPLING_MAX_PER_PDP instances of each paired dump
+ *   point, chosen uniformly at random.
+ * - CAP: Keep the first Config.SAMPLING_MAX_PER_PDP instances of each paired
+ *   dump point.
+ * In every mode, the first Config.SAMPLING_MIN_PER_PDP instances of each
+ * paired dump point are kept, so that the rare ones are not wiped out.
+ */
+public class Sampler {
+	public enum Mode { NONE, GLOBAL_NTH, STRATIFIED, RESERVOIR, CAP }
+
+	/**
+	 * Where the kept instances go.
+	 */
+	public interface Sink {
+		void write(String pdpId, DumpPoint sdp, DumpPoint rdp) throws IOException;
+	}
+
+	/**
+	 * The sampling state of a paired dump point.
+	 */
+	private static class Stratum {
+		int offeredCnt = 0;
+		int keptCnt = 0;
+		// The reservoir, in the RESERVOIR mode.
+		ArrayList<DumpPoint[]> reservoir = null;
+	}
+
+	private final Mode mode;
+	private final Sink sink;
+	private final HashMap<String, Stratum> strata = new HashMap<>();
+	private final Random random = new Random(Config.SAMPLING_SEED);
+	private int offeredCnt = 0;
+
+	public Sampler(Mode mode, Sink sink) {
+		this.mode = mode;
+		this.sink = sink;
+	}
+
+	/**
+	 * Offer an instance of a paired dump point to the sampler. The instance is
+	 * either written to the sink right away, dropped, or, in the RESERVOIR
+	 * mode, kept until finish().
+	 * @param pdpId The ID of the paired dump point.
+	 * @param sdp The dump point at the sender side.
+	 * @param rdp The dump point at the receiver side.
+	 */
+	public void offer(String pdpId, DumpPoint sdp, DumpPoint rdp)
+					throws IOException {
+		offeredCnt++;
+		Stratum stratum = strata.get(pdpId);
+		if (stratum == null) {
+			stratum = new Stratum();
+			strata.put(pdpId, stratum);
+		}
+		stratum.offeredCnt++;
+
+		if (mode == Mode.RESERVOIR) {
+			offerToReservoir(stratum, sdp, rdp);
+			return;
+		}
+
+		boolean keep;
+		switch (mode) {
+			case GLOBAL_NTH:
+				keep = offeredCnt % Config.SAMPLING_INTERVAL == 0;
+				break;
+			case STRATIFIED:
+				keep = (stratum.offeredCnt - 1) % Config.SAMPLING_INTERVAL == 0;
+				break;
+			case CAP:
+				keep = stratum.keptCnt < Config.SAMPLING_MAX_PER_PDP;
+				break;
+			default:
+				keep = true;
+		}
+		if (keep || stratum.keptCnt < Config.SAMPLING_MIN_PER_PDP) {
+			stratum.keptCnt++;
+			sink.write(pdpId, sdp, rdp);
+		}
+	}
+
+	/**
+	 * Reservoir sampling, i.e., Algorithm R.
+	 */
+	private void offerToReservoir(Stratum stratum, DumpPoint sdp, DumpPoint rdp) {
+		int capacity = Math.max(
+						Config.SAMPLING_MAX_PER_PDP, Config.SAMPLING_MIN_PER_PDP);
+		if (stratum.reservoir == null) {
+			stratum.reservoir = new ArrayList<>();
+		}
+		if (stratum.reservoir.size() < capacity) {
+			stratum.reservoir.add(new DumpPoint[]{sdp, rdp});
+		} else {
+			int idx = random.nextInt(stratum.offeredCnt);
+			if (idx < capacity) {
+				stratum.reservoir.set(idx, new DumpPoint[]{sdp, rdp});
+			}
+		}
+	}
+
+	/**
+	 * Write the instances held by the sampler, and report what is dropped.
+	 */
+	public void finish() throws IOException {
+		for (Map.Entry<String, Stratum> entry : strata.entrySet()) {
+			Stratum stratum = entry.getValue();
+			if (stratum.reservoir != null) {
+				for (DumpPoint[] instance : stratum.reservoir) {
+					sink.write(entry.getKey(), instance[0], instance[1]);
+				}
+				stratum.keptCnt = stratum.reservoir.size();
+				stratum.reservoir = null;
+			}
+		}
+		report();
+	}
+
+	/**
+	 * Report how many instances of each paired dump point are dropped, to
+	 * Config.FILE_NAME_SAMPLING_REPORT.
+	 */
+	private void report() {
+		int keptCnt = 0;
+		int emptyPdpCnt = 0;
+		for (Stratum stratum : strata.values()) {
+			keptCnt += stratum.keptCnt;
+			if (stratum.keptCnt == 0) {
+				emptyPdpCnt++;
+			}
+		}
+		Logger.info("Sampling (" + mode + ") kept " + keptCnt + " out of " +
+						offeredCnt + " paired dump point instances, dropping " +
+						(offeredCnt - keptCnt) + ".");
+		if (emptyPdpCnt > 0) {
+			Logger.warn("Sampling dropped all the instances of " + emptyPdpCnt +
+							" out of " + strata.size() + " paired dump points.");
+		}
+
+		try (BufferedWriter writer = new BufferedWriter(
+						new FileWriter(Config.FILE_NAME_SAMPLING_REPORT))) {
+			writer.write("# kept offered dropped pdp\n");
+			for (Map.Entry<String, Stratum> entry : new TreeMap<>(strata).entrySet()) {
+				Stratum stratum = entry.getValue();
+				writer.write(stratum.keptCnt + " " + stratum.offeredCnt + " " +
+								(stratum.offeredCnt - stratum.keptCnt) + " " +
+								entry.getKey() + "\n");
+			}
+		} catch (IOException ioe) {
+			Logger.warn("Fail to write the sampling report to " +
+							Config.FILE_NAME_SAMPLING_REPORT, ioe);
+		}
+	}
+}
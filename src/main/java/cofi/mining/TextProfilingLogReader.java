@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.mining;
+
+import java.io.*;
+
+/**
+ * Read a profiling log in the text format:
+ *
+ *   action
+ *   message ID
+ *   number of dump points
+ *   for each dump point:
+ *     dump point ID
+ *     number of variables
+ *     for each variable: name, type, value (one per line)
+ *   an empty line
+ */
+public class TextProfilingLogReader extends ProfilingLogReader {
+	private final BufferedReader reader;
+
+	/**
+	 * @param logFile The profiling log.
+	 * @param filtered Whether to skip the variables we are not interested in.
+	 */
+	public TextProfilingLogReader(File logFile, boolean filtered)
+					throws IOException {
+		super(filtered);
+		reader = new BufferedReader(new FileReader(logFile));
+	}
+
+	/**
+	 * @param in The entries of a profiling log, e.g., the ones appended to it
+	 *           since it was last read.
+	 * @param filtered Whether to skip the variables we are not interested in.
+	 */
+	TextProfilingLogReader(Reader in, boolean filtered) throws IOException {
+		super(filtered);
+		reader = new BufferedReader(in);
+	}
+
+	@Override
+	public Entry next() throws IOException {
+		String action = reader.readLine();
+		if (action == null) {
+			return null;
+		}
+		Entry entry = new Entry(action, reader.readLine());
+
+		// Load the dump points associated with this action.
+		int dpCnt = Integer.parseInt(reader.readLine());
+		for (int dpIdx = 0; dpIdx < dpCnt; ++dpIdx) {
+			DumpPoint dp = new DumpPoint(reader.readLine());
+
+			// Load the variables dumped at this dump point.
+			int varCnt = Integer.parseInt(reader.readLine());
+			for (int varIdx = 0; varIdx < varCnt; ++varIdx) {
+				String varName = reader.readLine();
+				String varType = reader.readLine();
+				String varValue = reader.readLine();
+				addVar(dp, varName, varType, varValue);
+			}
+			entry.dumpPoints.add(dp);
+		}
+
+		// Read the tail empty line.
+		reader.readLine();
+		return entry;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
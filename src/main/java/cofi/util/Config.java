@@ -30,6 +30,94 @@ public class Config {
 	// The max number of test runs for each invariant.
 	public static final int MAX_ITERATIONS_PER_INVARIANT = 101;
 
+	// The max wall-clock time of a test run, in milliseconds. The test run is
+	// killed, together with all the processes it has spawned, once it passes
+	// this deadline. A non-positive number means no deadline.
+	public static final long RUN_TIMEOUT_MS = 30 * 60 * 1000;
+	// The max time a test run can go without reporting any event or printing any
+	// output before we consider it hung and kill it, in milliseconds. A
+	// non-positive number disables the hang detection.
+	public static final long HANG_TIMEOUT_MS = 5 * 60 * 1000;
+
+	// Whether to treat failure plans that are the same up to a renaming of the
+	// nodes as equivalent, and only test one plan out of each such group. This
+	// assumes that the nodes in the cluster play interchangeable roles.
+	public static final boolean SYMMETRY_REDUCTION = false;
+
+	// Whether to steer the system into the state to keep by holding back the
+	// messages to the nodes that have already reached their part of that state,
+	// until the other nodes catch up.
+	public static final boolean STATE_STEERING = false;
+	// The max time to hold back a message when steering, in milliseconds.
+	public static final int STEERING_MAX_HOLD_MS = 2000;
+	// The max number of messages to hold back at the same time when steering.
+	public static final int STEERING_MAX_HELD_MSGS = 8;
+
+	// Whether to skip the failure plans that, judging from the previous runs,
+	// cannot fail any message, or only fail messages that have been failed at
+	// the same state before. This is a heuristic: a message failed under another
+	// plan may still lead elsewhere along with the other faults of this plan.
+	public static final boolean PRUNE_FUTILE_PLANS = false;
+
+	// The max number of invariants to select out of each group of invariants
+	// that are the same up to a renaming of the nodes. A non-positive number
+	// means selecting all of them.
+	public static final int MAX_INVARIANTS_PER_CLASS = 1;
+
+	// Whether to remove the variables that never change, in any thread on any
+	// node, before merging the profiling logs. Note that the equalities
+	// derived only through such constants are not mined then.
+	public static final boolean ELIMINATE_CONSTANT_VARIABLES = false;
+	// Whether to merge the profiling logs as an external sort by message ID,
+	// instead of loading all of them into memory first.
+	public static final boolean STREAMING_MERGE = false;
+	// The number of threads to load the profiling logs with, when merging them
+	// in memory. A non-positive number means one thread per core.
+	public static final int MERGE_LOADING_THREADS = 0;
+	// The max number of variables to buffer before spilling a sorted run when
+	// merging the profiling logs in the streaming mode.
+	public static final long MERGE_SPILL_THRESHOLD = 2000000;
+	// Whether to write the merged logs into dtrace files directly, instead of
+	// going through a temporary log file for each paired dump point.
+	public static final boolean DIRECT_DTRACE_OUTPUT = false;
+	// Whether to gzip the dtrace files. Only works with DIRECT_DTRACE_OUTPUT.
+	public static final boolean GZIP_DTRACES = false;
+	// The max number of characters to buffer for the paired dump points before
+	// spilling them to disk, when writing the dtrace files directly.
+	public static final long DTRACE_BUFFER_LIMIT = 200000000;
+
+	// How to sample the paired dump point instances for mining. One of NONE,
+	// GLOBAL_NTH, STRATIFIED, RESERVOIR, and CAP. See cofi.mining.Sampler.
+	public static final String SAMPLING_MODE = "GLOBAL_NTH";
+	// Keep one out of this many instances, in the GLOBAL_NTH and STRATIFIED
+	// modes.
+	public static final int SAMPLING_INTERVAL = 10;
+	// The max number of instances to keep for each paired dump point, in the
+	// RESERVOIR and CAP modes.
+	public static final int SAMPLING_MAX_PER_PDP = 1000;
+	// The min number of instances to keep for each paired dump point, in all
+	// the modes.
+	public static final int SAMPLING_MIN_PER_PDP = 1;
+	// The seed of the random sampling, for reproducible results.
+	public static final long SAMPLING_SEED = 0;
+
+	// How often the mining daemon checks the profiling logs for new entries,
+	// in milliseconds.
+	public static final long MINING_DAEMON_POLL_INTERVAL_MS = 1000;
+	// The min number of samples of a program point before the native miner
+	// reports any of its invariants. Daikon only reports an equality once the
+	// chance of it holding by coincidence, halved by each observation, is
+	// below 1 - 0.99, its default confidence limit, which takes 7 of them.
+	public static final int MINING_MIN_SAMPLES = 7;
+
+	// The max heap size of each Daikon worker, in megabytes.
+	public static final long DAIKON_WORKER_HEAP_MB = 10240;
+	// The share of the physical memory that the Daikon workers can use.
+	public static final double DAIKON_MEMORY_FRACTION = 0.8;
+	// The max number of Daikon workers. A non-positive number means as many as
+	// the cores and the memory allow.
+	public static final int DAIKON_MAX_WORKERS = 0;
+
 	////////////////
 	// File names //
 	////////////////
@@ -37,4 +125,20 @@ public class Config {
 	public static final String FILE_NAME_TOTAL_RUNS = "/app/total-runs.txt";
 	// The file storing the ranked invariants.
 	public static final String FILE_NAME_SELECTED_INVARIANTS = "/cofi/selected-invariants.txt";
+	// The file storing the invariants mined by EqualityMiner.
+	public static final String FILE_NAME_MINED_INVARIANTS = "/cofi/native-invariants.txt";
+	// The file storing the size of each group of equivalent invariants.
+	public static final String FILE_NAME_INVARIANT_CLASSES = "/cofi/invariant-classes.txt";
+	// The include and exclude patterns of the variables to mine. See
+	// cofi.variable.VariableFilter.
+	public static final String FILE_NAME_VARIABLE_FILTERS = "/cofi/variable-filters.txt";
+	// The file that tells the mining daemon the workload is done, under the
+	// directory of the profiling logs.
+	public static final String FILE_NAME_MINING_DONE = "mining-done";
+	// The file storing how many instances of each paired dump point are kept.
+	public static final String FILE_NAME_SAMPLING_REPORT = "sampling-report.txt";
+	// The directory to spill the sorted runs of profiling logs to.
+	public static final String DIRECTORY_MERGE_RUNS = "mergeRuns";
+	// The directory to spill the records of the paired dump points to.
+	public static final String DIRECTORY_DTRACE_SPILLS = "dtraceSpills";
 }
@@ -15,10 +15,17 @@
  */
 package cofi.util;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class StrOps {
+	// A node ID at the beginning of a variable name, or a key hash that may be
+	// the hashed address of a node, i.e., "nd####-" or "get(####)".
+	private static final Pattern pNodeIDOrKeyHash =
+					Pattern.compile("\\bnd(-?\\d+)-|get\\((-?\\d+)\\)");
+
 	/**
 	 * Check if the given string represents a "get by key" operation,
 	 * i.e., "get(\d)".
@@ -139,4 +146,53 @@ public class StrOps {
 		}
 	  return string;
 	}
+
+	/**
+	 * Rename the node IDs in the given string. A node ID can show up in two
+	 * forms: as the "nd####-" prefix of a variable name, or as a "get(####)"
+	 * accessor whose key is the node's address, e.g., in Cassandra's
+	 * Gossiper.endpointStateMap. Node IDs not in the renaming stay the same.
+	 * @param str The string to work on, e.g., a variable name or an invariant.
+	 * @param renaming A mapping from old node IDs to new node IDs. Both are of
+	 *                 the form "nd####".
+	 * @return The string with its node IDs renamed.
+	 */
+	public static String renameNodeIDs(
+					String str, HashMap<String, String> renaming) {
+		Matcher matcher = pNodeIDOrKeyHash.matcher(str);
+		StringBuffer sb = new StringBuffer();
+		while (matcher.find()) {
+			boolean isPrefix = matcher.group(1) != null;
+			String oldID = "nd" + (isPrefix ? matcher.group(1) : matcher.group(2));
+			String newID = renaming.get(oldID);
+			if (newID == null) {
+				newID = oldID;
+			}
+			String replacement = isPrefix
+							? newID + "-"
+							: "get(" + newID.substring(2) + ")";
+			matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Get the IDs of the nodes that may be mentioned in the given string, in the
+	 * order of their first appearance. See renameNodeIDs() for the forms a node
+	 * ID can take. Note that a "get(####)" accessor may also be the hash of a
+	 * key that is not a node address, so callers should check the IDs against
+	 * the known nodes.
+	 * @param str The string to work on.
+	 * @return The possible node IDs in the form of "nd####".
+	 */
+	public static LinkedHashSet<String> getNodeIDsInOrder(String str) {
+		LinkedHashSet<String> nodeIDs = new LinkedHashSet<>();
+		Matcher matcher = pNodeIDOrKeyHash.matcher(str);
+		while (matcher.find()) {
+			String id = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+			nodeIDs.add("nd" + id);
+		}
+		return nodeIDs;
+	}
 }
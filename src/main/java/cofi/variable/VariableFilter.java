@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Haicheng Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cofi.variable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Decide which variables to keep by their access paths. The filters are read
+ * from a file next to interesting-variables.txt, one rule per line:
+ *
+ *   # Drop the values of all the map entries...
+ *   exclude **.get(*).value
+ *   # ...except for the ones with these key hashes.
+ *   include **.get(-1839152142).value
+ *
+ * A pattern is matched against the segments of an access path, i.e., the
+ * parts between the dots. A "*" in a segment matches any characters within
+ * the segment, and a "**" segment matches any number of segments. A pattern
+ * matches a variable if it matches its access path or a prefix of it, so
+ * excluding a path excludes everything under it. The last matching rule
+ * decides; a variable that matches no rule is kept. The patterns are matched
+ * all at once with an AccessPathMatcher.
+ *
+ * The client applies the same filters when collecting the variables (see
+ * cofi.client.VariableFilter); keep the two in sync.
+ */
+public class VariableFilter {
+  // The patterns, each with its index in the rules.
+  private final AccessPathMatcher<Integer> patterns = new AccessPathMatcher<>();
+  // Whether each rule is an include rule.
+  private final ArrayList<Boolean> includes = new ArrayList<>();
+
+  /**
+   * Load the filters from the given file.
+   * @param fileName The filter file.
+   * @return The filters, or an empty filter if the file does not exist.
+   */
+  public static VariableFilter load(String fileName) throws IOException {
+    VariableFilter filter = new VariableFilter();
+    if (!new File(fileName).exists()) {
+      return filter;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        filter.addRule(line);
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * Add a rule, i.e., "include <pattern>" or "exclude <pattern>". Empty lines
+   * and lines starting with "#" are ignored.
+   * @param line The rule.
+   */
+  public void addRule(String line) {
+    line = line.trim();
+    if (line.isEmpty() || line.startsWith("#")) {
+      return;
+    }
+    String[] parts = line.split("\\s+", 2);
+    if (parts.length != 2
+            || !(parts[0].equals("include") || parts[0].equals("exclude"))) {
+      throw new IllegalArgumentException("Invalid variable filter: " + line);
+    }
+    patterns.add(parts[1], includes.size());
+    includes.add(parts[0].equals("include"));
+  }
+
+  public boolean isEmpty() {
+    return includes.isEmpty();
+  }
+
+  /**
+   * Check whether the variable should be kept.
+   * @param path The access path of the variable.
+   * @return True if the variable should be kept.
+   */
+  public boolean accepts(String path) {
+    if (includes.isEmpty()) {
+      return true;
+    }
+    String[] segments = path.split("\\.");
+    int last = -1;
+    for (int idx : patterns.matchPrefixes(segments, segments.length, true)) {
+      last = Math.max(last, idx);
+    }
+    return last < 0 || includes.get(last);
+  }
+}